@@ -0,0 +1,169 @@
+package com.axperty.svsm.bench;
+
+import com.axperty.svsm.properties.SetLanguage;
+import com.axperty.svsm.utils.AdbSession;
+import com.axperty.svsm.utils.AdbTar;
+import com.axperty.svsm.utils.AdbTransfer;
+import com.axperty.svsm.utils.BackupStore;
+import com.axperty.svsm.utils.CopyEngine;
+import com.axperty.svsm.utils.GetData;
+import com.axperty.svsm.utils.SaveArchive;
+import com.axperty.svsm.utils.SaveGameInfoReader;
+import com.axperty.svsm.utils.SaveInfo;
+import com.axperty.svsm.utils.SaveSearchIndex;
+import com.axperty.svsm.utils.SaveTableModel;
+import com.axperty.svsm.utils.TableSearch;
+
+import javax.swing.*;
+import javax.swing.table.TableRowSorter;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.axperty.svsm.bench.SavesBenchmark.measure;
+
+// The benchmarks, run once per generated Saves folder size
+class SaveBenchmarks {
+    // The serial of bench/fake-adb, and a device folder the pushes go to
+    private static final String DEVICE = "FAKE0001";
+    private static final String PUSH_FOLDER = "/storage/emulated/0/svsm-bench/Saves";
+
+    static void run(int count, Path savesDirectory, Path workDirectory) throws Exception {
+        List<Path> folders;
+        try (Stream<Path> list = Files.list(savesDirectory)) {
+            folders = list.toList();
+        }
+
+        // Listing
+        measure("steam.list+details", count, GetData::getSteamSavesData);
+        measure("android.list (fake adb)", count, GetData::getAndroidSavesData);
+        measure("android.details (fake adb)", count, () -> {
+            List<SaveInfo> saves = new ArrayList<>();
+            GetData.scanAndroidSaves(saves::add);
+            GetData.readAndroidSaveDetails(saves, save -> {
+            });
+            return null;
+        });
+        AdbSession.close();
+
+        // Metadata extraction
+        measure("SaveGameInfo parse (sequential)", count, () -> {
+            for (Path folder : folders) {
+                SaveGameInfoReader.read(folder);
+            }
+            return null;
+        });
+
+        // Backup copying
+        Path copyDirectory = workDirectory.resolve("copy");
+        Files.createDirectories(copyDirectory);
+        measure("backup.copyDirectory", count, () -> {
+            for (Path folder : folders) {
+                CopyEngine.copyDirectory(folder, copyDirectory.resolve(folder.getFileName().toString()));
+            }
+            return null;
+        });
+
+        Path storeDirectory = workDirectory.resolve("store");
+        measure("backup.snapshot (full)", count, () -> {
+            SavesBenchmark.deleteRecursively(storeDirectory);
+            return new BackupStore(storeDirectory).createSnapshot(savesDirectory);
+        });
+        measure("backup.snapshot (unchanged)", count, () -> new BackupStore(storeDirectory).createSnapshot(savesDirectory));
+
+        // Zip export of every save, deflated on one thread with ZipOutputStream against the parallel writer
+        List<SaveInfo> localSaves = new ArrayList<>();
+        GetData.scanSteamSaves(localSaves::add, false);
+        Path zipFile = workDirectory.resolve("saves.zip");
+        measure("archive.export (ZipOutputStream)", count, () -> {
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+                for (Path folder : folders) {
+                    try (Stream<Path> walk = Files.walk(folder)) {
+                        for (Path file : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                            zip.putNextEntry(new ZipEntry(savesDirectory.relativize(file).toString().replace('\\', '/')));
+                            Files.copy(file, zip);
+                            zip.closeEntry();
+                        }
+                    }
+                }
+            }
+            return null;
+        });
+        measure("archive.export (parallel)", count, () -> silenced(() -> {
+            SaveArchive.export(localSaves, zipFile);
+            return null;
+        }));
+        Files.deleteIfExists(zipFile);
+
+        // Transfers of the whole Saves folder, push/pull against a tar stream
+        Path pulled = workDirectory.resolve("pulled");
+        measure("transfer.pull (adb pull)", count, () -> {
+            SavesBenchmark.deleteRecursively(pulled);
+            return silenced(() -> AdbTransfer.pull(DEVICE, List.of(GetData.ANDROID_SAVES_PATH), pulled, -1, null));
+        });
+        measure("transfer.pull (tar)", count, () -> {
+            SavesBenchmark.deleteRecursively(pulled);
+            return silenced(() -> AdbTar.pull(DEVICE, GetData.ANDROID_SAVES_PATH, pulled, -1));
+        });
+        Path pushed = workDirectory.resolve("device/storage/emulated/0/svsm-bench");
+        measure("transfer.push (adb push)", count, () -> {
+            SavesBenchmark.deleteRecursively(pushed);
+            Files.createDirectories(pushed);
+            return silenced(() -> AdbTransfer.push(DEVICE, List.of(savesDirectory.toString()), PUSH_FOLDER, -1, null));
+        });
+        measure("transfer.push (tar)", count, () -> {
+            SavesBenchmark.deleteRecursively(pushed);
+            return silenced(() -> AdbTar.push(DEVICE, savesDirectory, PUSH_FOLDER, -1));
+        });
+        SavesBenchmark.deleteRecursively(pulled);
+        SavesBenchmark.deleteRecursively(pushed);
+        AdbSession.close();
+
+        // Table filtering, a regex filter on each keystroke as a baseline, then the search index
+        List<SaveInfo> saves = new ArrayList<>();
+        GetData.scanSteamSaves(saves::add, false);
+        SaveTableModel model = new SaveTableModel(SetLanguage.getBundle(), false, null);
+        model.setSaves(saves);
+        TableRowSorter<SaveTableModel> sorter = new TableRowSorter<>(model);
+        String[] keystrokes = {"s", "sa", "sam", "sam1", "sam12"};
+        measure("table.filter (regex, 5 keys)", count, () -> {
+            for (String text : keystrokes) {
+                sorter.setRowFilter(RowFilter.regexFilter("(?i)" + text, 0, 1));
+            }
+            return sorter.getViewRowCount();
+        });
+        measure("search.index (build)", count, () -> new SaveSearchIndex(saves).size());
+        SaveSearchIndex index = new SaveSearchIndex(saves);
+        measure("search.query (5 keys)", count, () -> {
+            int matches = 0;
+            for (String text : keystrokes) {
+                matches += index.find(text).cardinality();
+            }
+            return matches;
+        });
+        BitSet rows = index.find(keystrokes[keystrokes.length - 1]);
+        measure("table.filter (index rows)", count, () -> {
+            sorter.setRowFilter(TableSearch.rowFilter(rows));
+            return sorter.getViewRowCount();
+        });
+    }
+
+    // The transfers print a line each, which would be mixed with the results
+    private static <T> T silenced(Callable<T> benchmark) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return benchmark.call();
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.axperty.svsm.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+
+// Benchmarks for listing, metadata extraction, backup copying and table filtering on generated Saves folders.
+// Android paths run against bench/fake-adb, so everything works on a plain Linux machine.
+//
+// Usage: SavesBenchmark [--saves 10,100,1000,10000] [--max-file-kb 256] [--iterations 5] [--warmup 2]
+//                       [--fake-adb bench/fake-adb] [--work-dir /tmp/svsm-bench]
+public class SavesBenchmark {
+    private static int iterations = 5;
+    private static int warmup = 2;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int[] saveCounts = Arrays.stream(options.getOrDefault("saves", "10,100,1000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int maxFileKb = Integer.parseInt(options.getOrDefault("max-file-kb", "256"));
+        iterations = Integer.parseInt(options.getOrDefault("iterations", "5"));
+        warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        Path workDirectory = Paths.get(options.getOrDefault("work-dir", System.getProperty("java.io.tmpdir") + "/svsm-bench"));
+        Path fakeAdb = Paths.get(options.getOrDefault("fake-adb", "bench/fake-adb")).toAbsolutePath();
+
+        // The Android saves live in the fake device root, so the same generated folders are used for both platforms.
+        // These have to be set before the manager classes are loaded.
+        Path deviceRoot = workDirectory.resolve("device");
+        Path savesDirectory = deviceRoot.resolve("storage/emulated/0/Android/data/com.chucklefish.stardewvalley/files/Saves");
+        System.setProperty("svsm.adb", workDirectory.resolve("adb").toString());
+        System.setProperty("svsm.steamSaves", savesDirectory.toString());
+        System.setProperty("java.awt.headless", "true");
+
+        System.out.printf("%-34s %8s %12s %12s %12s%n", "benchmark", "saves", "mean ms", "min ms", "max ms");
+        for (int count : saveCounts) {
+            deleteRecursively(workDirectory);
+            writeAdbWrapper(workDirectory, fakeAdb, deviceRoot);
+            SyntheticSaves.generate(savesDirectory, count, maxFileKb, count);
+
+            SaveBenchmarks.run(count, savesDirectory, workDirectory);
+        }
+        deleteRecursively(workDirectory);
+        System.exit(0);
+    }
+
+    // Run a benchmark and print its timings
+    static void measure(String name, int saves, Callable<?> benchmark) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            benchmark.call();
+        }
+        List<Double> timings = new ArrayList<>();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            benchmark.call();
+            timings.add((System.nanoTime() - start) / 1_000_000.0);
+        }
+        double mean = timings.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        System.out.printf("%-34s %8d %12.2f %12.2f %12.2f%n", name, saves, mean,
+                Collections.min(timings), Collections.max(timings));
+    }
+
+    // Environment variables can't be set from Java, so the fake device root is passed through a wrapper script
+    private static void writeAdbWrapper(Path workDirectory, Path fakeAdb, Path deviceRoot) throws IOException {
+        Files.createDirectories(workDirectory);
+        Path wrapper = workDirectory.resolve("adb");
+        Files.writeString(wrapper, "#!/bin/sh\nFAKE_ADB_ROOT='" + deviceRoot + "' exec '" + fakeAdb + "' \"$@\"\n");
+        wrapper.toFile().setExecutable(true);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        return options;
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (Files.notExists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) walk.sorted(Collections.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
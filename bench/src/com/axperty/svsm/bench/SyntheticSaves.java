@@ -0,0 +1,56 @@
+package com.axperty.svsm.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Generates a Saves folder with fake farm saves, laid out like the real game does
+public class SyntheticSaves {
+    private static final String[] NAMES = {"Abigail", "Sam", "Leah", "Harvey", "Emily", "Shane", "Penny", "Elliott"};
+
+    // Create count save folders in savesDirectory, the main save file of each is up to maxFileKb in size
+    public static void generate(Path savesDirectory, int count, int maxFileKb, long seed) throws IOException {
+        Random random = new Random(seed);
+        Files.createDirectories(savesDirectory);
+        for (int i = 0; i < count; i++) {
+            String name = NAMES[i % NAMES.length] + i;
+            String folderName = name + "_" + (100000000L + i);
+            Path folder = Files.createDirectories(savesDirectory.resolve(folderName));
+
+            Files.writeString(folder.resolve("SaveGameInfo"), saveGameInfo(name, random), StandardCharsets.UTF_8);
+
+            // Main save file, incompressible data of varied size
+            byte[] data = new byte[1024 + random.nextInt(Math.max(1, maxFileKb) * 1024)];
+            random.nextBytes(data);
+            Files.write(folder.resolve(folderName), data);
+            Files.write(folder.resolve(folderName + "_old"), data);
+        }
+    }
+
+    // A SaveGameInfo document with nested elements before the fields the reader looks for
+    private static String saveGameInfo(String name, Random random) {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        xml.append("<Farmer xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">");
+        xml.append("<items>");
+        for (int i = 0; i < 36; i++) {
+            xml.append("<Item><name>Item ").append(i).append("</name><stack>").append(random.nextInt(999)).append("</stack></Item>");
+        }
+        xml.append("</items>");
+        xml.append("<name>").append(name).append("</name>");
+        xml.append("<farmName>").append(name).append(" Acres</farmName>");
+        xml.append("<money>").append(random.nextInt(10_000_000)).append("</money>");
+        xml.append("<millisecondsPlayed>").append(random.nextInt(Integer.MAX_VALUE)).append("</millisecondsPlayed>");
+        xml.append("<dayOfMonthForSaveGame>").append(1 + random.nextInt(28)).append("</dayOfMonthForSaveGame>");
+        xml.append("<seasonForSaveGame>").append(random.nextInt(4)).append("</seasonForSaveGame>");
+        xml.append("<yearForSaveGame>").append(1 + random.nextInt(10)).append("</yearForSaveGame>");
+        xml.append("<friendshipData>");
+        for (int i = 0; i < 200; i++) {
+            xml.append("<item><key><string>Villager").append(i).append("</string></key><value><Friendship><Points>")
+                    .append(random.nextInt(2500)).append("</Points></Friendship></value></item>");
+        }
+        xml.append("</friendshipData></Farmer>");
+        return xml.toString();
+    }
+}
@@ -0,0 +1,552 @@
+package com.axperty.svsm;
+
+import com.axperty.svsm.utils.AdbSession;
+import com.axperty.svsm.utils.DeviceRegistry;
+import com.axperty.svsm.utils.GetData;
+import com.axperty.svsm.utils.SaveArchive;
+import com.axperty.svsm.utils.SaveDetails;
+import com.axperty.svsm.utils.SaveInfo;
+import com.axperty.svsm.utils.SaveLocations;
+import com.axperty.svsm.utils.SaveSync;
+import com.axperty.svsm.utils.TransferSave;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.axperty.svsm.utils.OperationLog.quote;
+
+// Headless entry point for scripted use, e.g. scheduled backups of many saves.
+// Started by main() whenever command line arguments are given.
+//
+// Usage: <command> [patterns...] [options]
+//   list    [--platform steam|android]              List saves
+//   backup  [--platform steam|android] --to <dir>   Copy saves into a folder
+//   sync    --to steam|android [--dry-run]          Move saves to the other platform, only changed files
+//   delete  [--platform steam|android] --yes        Delete saves
+//   export  [--platform steam|android] --to <zip>   Write saves into one zip archive
+//   import  <zip> --to steam|android                Copy the saves of a zip archive to a platform
+//
+// Patterns are globs on the folder name ("Alice_*"), --regex selects with a regular expression instead.
+// Both are case insensitive, no pattern selects every save.
+// Options: --device <serial,...> Android devices to use (default all connected), --jobs <n> saves processed
+// in parallel, --json machine-readable output.
+// Exit code is 0 if every save succeeded, 1 if any failed and 2 for usage errors.
+public class CommandLine {
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final String STEAM = "steam";
+    private static final String ANDROID = "android";
+
+    private final List<String> patterns = new ArrayList<>();
+    private final Map<String, String> options = new HashMap<>();
+    private final PrintStream out;
+    private Pattern selection;
+    private boolean json;
+    private List<String> devices; // Selected device serials, read on first use
+
+    // Outcome of a command for a single save, source is the save location of a local save (null for the game's Saves folder)
+    private record Result(String platform, String device, String source, String folder, boolean success, String message) {
+    }
+
+    private CommandLine(PrintStream out) {
+        this.out = out;
+    }
+
+    public static int run(String[] args) {
+        // Library code logs progress to System.out, keep stdout for the command output only
+        PrintStream out = System.out;
+        System.setOut(System.err);
+        try {
+            return new CommandLine(out).execute(args);
+        } finally {
+            System.setOut(out);
+            AdbSession.close();
+        }
+    }
+
+    private int execute(String[] args) {
+        if (args.length == 0 || args[0].equals("help") || args[0].equals("--help")) {
+            printUsage();
+            return args.length == 0 ? EXIT_USAGE : EXIT_OK;
+        }
+        String command = args[0];
+        if (!parseArguments(args)) {
+            return EXIT_USAGE;
+        }
+        json = options.containsKey("json");
+
+        try {
+            return switch (command) {
+                case "list" -> list();
+                case "backup" -> backup();
+                case "sync" -> sync();
+                case "delete" -> delete();
+                case "export" -> export();
+                case "import" -> importArchive();
+                default -> usageError("Unknown command: " + command);
+            };
+        } catch (IllegalArgumentException e) {
+            return usageError(e.getMessage());
+        }
+    }
+
+    private boolean parseArguments(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                patterns.add(arg);
+                continue;
+            }
+            String name = arg.substring(2);
+            switch (name) {
+                case "json", "dry-run", "yes" -> options.put(name, "true");
+                case "platform", "to", "regex", "jobs", "device" -> {
+                    if (i + 1 >= args.length) {
+                        usageError("Missing value for " + arg);
+                        return false;
+                    }
+                    options.put(name, args[++i]);
+                }
+                default -> {
+                    usageError("Unknown option: " + arg);
+                    return false;
+                }
+            }
+        }
+
+        try {
+            selection = buildSelection();
+        } catch (PatternSyntaxException e) {
+            usageError("Invalid regex pattern: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    // Globs and the regex are combined into one case insensitive pattern, null selects everything
+    private Pattern buildSelection() {
+        List<String> alternatives = new ArrayList<>();
+        for (String glob : patterns) {
+            alternatives.add(globToRegex(glob));
+        }
+        if (options.containsKey("regex")) {
+            alternatives.add(options.get("regex"));
+        }
+        if (alternatives.isEmpty()) {
+            return null;
+        }
+        return Pattern.compile("(?:" + String.join(")|(?:", alternatives) + ")", Pattern.CASE_INSENSITIVE);
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder("^");
+        for (char c : glob.toCharArray()) {
+            switch (c) {
+                case '*' -> regex.append(".*");
+                case '?' -> regex.append('.');
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.append('$').toString();
+    }
+
+    // --- Commands ---
+
+    private int list() {
+        List<String> platforms = getPlatforms();
+        List<String[]> rows = new ArrayList<>();
+        List<String> objects = new ArrayList<>();
+        for (String platform : platforms) {
+            for (SaveInfo save : findSaves(platform)) {
+                objects.add(toJson(platform, save));
+                rows.add(new String[]{location(platform, save.getDevice(), save.getLocation()), save.getFolderName(), save.getLastPlayed(),
+                        save.getDetails() == null ? "" : save.getDetails().getFarmerName(),
+                        save.getDetails() == null ? "" : save.getDetails().getGameDate(),
+                        save.getSizeBytes() < 0 ? "" : SaveSync.formatSize(save.getSizeBytes())});
+            }
+        }
+
+        if (json) {
+            out.println("[" + String.join(",", objects) + "]");
+        } else {
+            for (String[] row : rows) {
+                out.printf("%-24s %-32s %-11s %-16s %-22s %s%n", (Object[]) row);
+            }
+        }
+        return EXIT_OK;
+    }
+
+    private int backup() {
+        String to = requireOption("to");
+        List<String> platforms = getPlatforms();
+        List<Callable<Result>> jobs = new ArrayList<>();
+        for (String platform : platforms) {
+            // Saves of both platforms, and of several devices, share folder names, so each one gets its own sub folder
+            // and so do save locations, whose saves go into a sub folder named after them
+            Path destination = platforms.size() > 1 ? Paths.get(to, platform) : Paths.get(to);
+            boolean android = platform.equals(ANDROID);
+            // Only Android backups need the devices, Steam ones don't start adb
+            boolean perDevice = android && getDevices().size() > 1;
+            for (SaveInfo save : findSaves(platform)) {
+                jobs.add(job(platform, save.getDevice(), save.getLocation(), save.getFolderName(), () -> {
+                    Path folder = perDevice ? destination.resolve(save.getDevice())
+                            : save.getLocation() != null ? destination.resolve(save.getLocation()) : destination;
+                    Path target = folder.resolve(save.getFolderName());
+                    boolean success = android
+                            ? TransferSave.backupAndroidSave(save.getDevice(), save.getFolderName(), target)
+                            : TransferSave.backupSteamSave(SaveLocations.resolve(save), target);
+                    return new Result(platform, save.getDevice(), save.getLocation(), save.getFolderName(), success,
+                            success ? target.toString() : "Backup failed");
+                }));
+            }
+        }
+        return report(runAll(jobs));
+    }
+
+    private int sync() {
+        String target = requireOption("to").toLowerCase();
+        if (!target.equals(STEAM) && !target.equals(ANDROID)) {
+            throw new IllegalArgumentException("--to must be steam or android");
+        }
+        boolean dryRun = options.containsKey("dry-run");
+        List<Callable<Result>> jobs = new ArrayList<>();
+
+        if (target.equals(STEAM)) {
+            // Saves are selected on the devices they are copied from, a save on several devices is ambiguous
+            Map<String, Integer> copies = new HashMap<>();
+            List<SaveInfo> saves = findSaves(ANDROID);
+            for (SaveInfo save : saves) {
+                copies.merge(save.getFolderName(), 1, Integer::sum);
+            }
+            for (SaveInfo save : saves) {
+                if (copies.get(save.getFolderName()) > 1) {
+                    jobs.add(() -> new Result(STEAM, save.getDevice(), null, save.getFolderName(), false,
+                            "Save is on several devices, choose one with --device"));
+                    continue;
+                }
+                jobs.add(job(STEAM, save.getDevice(), null, save.getFolderName(), () -> applySync(dryRun,
+                        TransferSave.planMoveToSteam(save.getDevice(), save.getSaveName(), save.getSaveId()))));
+            }
+        } else {
+            // Every local save goes to every selected device, all transfers run at the same time.
+            // A save in several save locations is ambiguous.
+            List<String> devices = getDevices();
+            Map<String, Integer> copies = new HashMap<>();
+            List<SaveInfo> saves = findSaves(STEAM);
+            for (SaveInfo save : saves) {
+                copies.merge(save.getFolderName(), 1, Integer::sum);
+            }
+            for (SaveInfo save : saves) {
+                if (copies.get(save.getFolderName()) > 1) {
+                    jobs.add(() -> new Result(STEAM, null, save.getLocation(), save.getFolderName(), false,
+                            "Save is in several save locations"));
+                    continue;
+                }
+                for (String device : devices) {
+                    jobs.add(job(ANDROID, device, save.getLocation(), save.getFolderName(), () -> applySync(dryRun,
+                            TransferSave.planMoveToAndroid(device, save))));
+                }
+            }
+        }
+        return report(runAll(jobs));
+    }
+
+    private Result applySync(boolean dryRun, SaveSync.Plan plan) throws Exception {
+        String platform = plan.isToDevice() ? ANDROID : STEAM;
+        String folder = plan.getLocalFolder().getFileName().toString();
+        if (plan.isEmpty()) {
+            return new Result(platform, plan.getDevice(), null, folder, true, "Up to date");
+        }
+        if (dryRun) {
+            return new Result(platform, plan.getDevice(), null, folder, true, plan.getSummary());
+        }
+        boolean success = TransferSave.applyMove(plan);
+        return new Result(platform, plan.getDevice(), null, folder, success, success ? plan.getSummary() : "Transfer failed");
+    }
+
+    private int delete() {
+        if (!options.containsKey("yes")) {
+            throw new IllegalArgumentException("delete needs --yes to confirm");
+        }
+        List<Callable<Result>> jobs = new ArrayList<>();
+        for (String platform : getPlatforms()) {
+            for (SaveInfo save : findSaves(platform)) {
+                jobs.add(job(platform, save.getDevice(), save.getLocation(), save.getFolderName(), () -> {
+                    boolean success = platform.equals(ANDROID)
+                            ? TransferSave.deleteAndroidSave(save.getDevice(), save.getFolderName())
+                            : TransferSave.deleteSteamSave(SaveLocations.resolve(save));
+                    return new Result(platform, save.getDevice(), save.getLocation(), save.getFolderName(), success,
+                            success ? "Deleted" : "Delete failed");
+                }));
+            }
+        }
+        return report(runAll(jobs));
+    }
+
+    // One archive for the saves of every platform, so their folder names must be unique
+    private int export() {
+        Path zipFile = Paths.get(requireOption("to"));
+        List<SaveInfo> saves = new ArrayList<>();
+        List<String> platforms = new ArrayList<>();
+        for (String platform : getPlatforms()) {
+            for (SaveInfo save : findSaves(platform)) {
+                saves.add(save);
+                platforms.add(platform);
+            }
+        }
+        if (saves.isEmpty()) {
+            return report(List.of());
+        }
+
+        String message;
+        boolean success;
+        try {
+            SaveArchive.export(saves, zipFile);
+            success = true;
+            message = zipFile.toString();
+        } catch (Exception e) {
+            success = false;
+            message = e.getMessage();
+        }
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < saves.size(); i++) {
+            SaveInfo save = saves.get(i);
+            results.add(new Result(platforms.get(i), save.getDevice(), save.getLocation(), save.getFolderName(), success, message));
+        }
+        return report(results);
+    }
+
+    // The archive is the only argument, its saves go to the game's Saves folder or to every selected device
+    private int importArchive() {
+        String target = requireOption("to").toLowerCase();
+        if (!target.equals(STEAM) && !target.equals(ANDROID)) {
+            throw new IllegalArgumentException("--to must be steam or android");
+        }
+        if (patterns.size() != 1) {
+            throw new IllegalArgumentException("import needs the zip archive to import");
+        }
+        Path zipFile = Paths.get(patterns.get(0));
+        List<String> targets = target.equals(STEAM) ? Collections.singletonList(null) : getDevices();
+        List<Callable<List<Result>>> jobs = new ArrayList<>();
+        for (String device : targets) {
+            jobs.add(() -> {
+                try {
+                    SaveArchive.Result imported = device == null
+                            ? SaveArchive.importToSteam(zipFile)
+                            : SaveArchive.importToAndroid(zipFile, device);
+                    List<Result> results = new ArrayList<>();
+                    for (String folder : imported.imported()) {
+                        results.add(new Result(target, device, null, folder, true, "Imported"));
+                    }
+                    for (String folder : imported.failed()) {
+                        results.add(new Result(target, device, null, folder, false, "Import failed"));
+                    }
+                    return results;
+                } catch (Exception e) {
+                    return List.of(new Result(target, device, null, zipFile.getFileName().toString(), false, e.getMessage()));
+                }
+            });
+        }
+        List<Result> results = new ArrayList<>();
+        for (List<Result> deviceResults : runAll(jobs)) {
+            results.addAll(deviceResults);
+        }
+        return report(results);
+    }
+
+    // --- Helpers ---
+
+    // A job that reports an exception as a failed result
+    private static Callable<Result> job(String platform, String device, String source, String folder, Callable<Result> action) {
+        return () -> {
+            try {
+                return action.call();
+            } catch (Exception e) {
+                return new Result(platform, device, source, folder, false, e.getMessage());
+            }
+        };
+    }
+
+    // Run jobs --jobs at a time, results keep the order of the jobs
+    private <T> List<T> runAll(List<Callable<T>> jobs) {
+        ExecutorService executor = Executors.newFixedThreadPool(getJobs());
+        try {
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : executor.invokeAll(jobs)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Selected saves of a platform, sorted by folder name, Android saves only on the selected devices
+    private List<SaveInfo> findSaves(String platform) {
+        List<SaveInfo> saves = Collections.synchronizedList(new ArrayList<>());
+        if (platform.equals(STEAM)) {
+            SaveLocations.scan(saves::add, true);
+        } else {
+            List<String> devices = getDevices();
+            List<SaveInfo> found = Collections.synchronizedList(new ArrayList<>());
+            DeviceRegistry.runOnEach(devices, device -> GetData.scanAndroidSaves(device, found::add));
+            GetData.readAndroidSaveDetails(found, saves::add);
+        }
+
+        List<SaveInfo> selected = new ArrayList<>();
+        for (SaveInfo save : saves) {
+            if (selection == null || selection.matcher(save.getFolderName()).matches()) {
+                selected.add(save);
+            }
+        }
+        selected.sort(Comparator.comparing(SaveInfo::getFolderName)
+                .thenComparing(save -> save.getDevice() == null ? "" : save.getDevice())
+                .thenComparing(save -> save.getLocation() == null ? "" : save.getLocation()));
+        return selected;
+    }
+
+    // Serials given with --device (comma separated), or every connected device
+    private List<String> getDevices() {
+        if (devices == null) {
+            try {
+                List<String> connected = DeviceRegistry.getConnected().stream().map(DeviceRegistry.Device::getSerial).toList();
+                if (options.containsKey("device")) {
+                    devices = new ArrayList<>();
+                    for (String serial : options.get("device").split(",")) {
+                        if (!connected.contains(serial.trim())) {
+                            throw new IllegalArgumentException("Device not connected: " + serial.trim());
+                        }
+                        devices.add(serial.trim());
+                    }
+                } else {
+                    devices = connected;
+                }
+            } catch (IOException | InterruptedException e) {
+                System.err.println("Error listing Android devices: " + e.getMessage());
+                devices = List.of();
+            }
+        }
+        return devices;
+    }
+
+    // "steam", "steam:<location>" for a save in another save location, or "android:<serial>" for a save on a device
+    private static String location(String platform, String device, String source) {
+        String where = device != null ? device : source;
+        return where == null ? platform : platform + ":" + where;
+    }
+
+    private List<String> getPlatforms() {
+        String platform = options.getOrDefault("platform", "all").toLowerCase();
+        return switch (platform) {
+            case STEAM -> List.of(STEAM);
+            case ANDROID -> List.of(ANDROID);
+            case "all" -> List.of(STEAM, ANDROID);
+            default -> throw new IllegalArgumentException("--platform must be steam, android or all");
+        };
+    }
+
+    private int getJobs() {
+        try {
+            int jobs = Integer.parseInt(options.getOrDefault("jobs", "4"));
+            if (jobs < 1) {
+                throw new IllegalArgumentException("--jobs must be at least 1");
+            }
+            return jobs;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--jobs must be a number");
+        }
+    }
+
+    private String requireOption(String name) {
+        String value = options.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing --" + name);
+        }
+        return value;
+    }
+
+    private int report(List<Result> results) {
+        boolean success = true;
+        List<String> objects = new ArrayList<>();
+        for (Result result : results) {
+            success &= result.success();
+            if (json) {
+                objects.add("{\"platform\":" + quote(result.platform()) + ",\"device\":" + quote(result.device())
+                        + ",\"source\":" + quote(result.source()) + ",\"folder\":" + quote(result.folder())
+                        + ",\"success\":" + result.success() + ",\"message\":" + quote(result.message()) + "}");
+            } else {
+                out.println((result.success() ? "OK     " : "FAILED ") + location(result.platform(), result.device(), result.source()) + " "
+                        + result.folder() + ": " + result.message());
+            }
+        }
+        if (json) {
+            out.println("[" + String.join(",", objects) + "]");
+        }
+        return success ? EXIT_OK : EXIT_FAILED;
+    }
+
+    private static String toJson(String platform, SaveInfo save) {
+        StringBuilder object = new StringBuilder("{");
+        object.append("\"platform\":").append(quote(platform));
+        object.append(",\"device\":").append(quote(save.getDevice()));
+        object.append(",\"source\":").append(quote(save.getLocation()));
+        object.append(",\"folder\":").append(quote(save.getFolderName()));
+        object.append(",\"name\":").append(quote(save.getSaveName()));
+        object.append(",\"id\":").append(quote(save.getSaveId()));
+        object.append(",\"lastModified\":").append(save.getLastModified());
+        object.append(",\"sizeBytes\":").append(save.getSizeBytes());
+        object.append(",\"fileCount\":").append(save.getFileCount());
+        SaveDetails details = save.getDetails();
+        if (details != null) {
+            object.append(",\"farmer\":").append(quote(details.getFarmerName()));
+            object.append(",\"farm\":").append(quote(details.getFarmName()));
+            object.append(",\"gameDate\":").append(quote(details.getGameDate()));
+            object.append(",\"money\":").append(details.getMoney());
+            object.append(",\"millisecondsPlayed\":").append(details.getMillisecondsPlayed());
+        }
+        return object.append('}').toString();
+    }
+
+    private int usageError(String message) {
+        System.err.println("Error: " + message);
+        printUsage();
+        return EXIT_USAGE;
+    }
+
+    private static void printUsage() {
+        System.err.println("""
+                Usage: <command> [patterns...] [options]
+                  list    [--platform steam|android]              List saves
+                  backup  [--platform steam|android] --to <dir>   Copy saves into a folder
+                  sync    --to steam|android [--dry-run]          Move saves to the other platform, only changed files
+                  delete  [--platform steam|android] --yes        Delete saves
+                  export  [--platform steam|android] --to <zip>   Write saves into one zip archive
+                  import  <zip> --to steam|android                Copy the saves of a zip archive to a platform
+
+                Patterns are globs on the save folder name, e.g. "Alice_*".
+                Options:
+                  --regex <pattern>   Select saves with a regular expression instead
+                  --device <serials>  Android devices to use, comma separated (default all connected)
+                  --jobs <n>          Saves processed in parallel (default 4)
+                  --json              Machine-readable output""");
+    }
+}
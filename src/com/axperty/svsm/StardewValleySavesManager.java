@@ -1,22 +1,39 @@
 package com.axperty.svsm;
 
+import com.axperty.svsm.dialogs.BackupsDialog;
+import com.axperty.svsm.dialogs.DiagnosticsDialog;
+import com.axperty.svsm.dialogs.TransferProgressDialog;
 import com.axperty.svsm.properties.SetLanguage;
-import com.axperty.svsm.utils.GetData;
+import com.axperty.svsm.utils.BackupStore;
+import com.axperty.svsm.utils.DeviceMonitor;
+import com.axperty.svsm.utils.DeviceRegistry;
+import com.axperty.svsm.utils.DiskUsage;
+import com.axperty.svsm.utils.ListingCache;
+import com.axperty.svsm.utils.SaveArchive;
+import com.axperty.svsm.utils.SaveInfo;
+import com.axperty.svsm.utils.SaveLocations;
+import com.axperty.svsm.utils.SaveSync;
+import com.axperty.svsm.utils.SaveTableModel;
+import com.axperty.svsm.utils.SaveTrash;
+import com.axperty.svsm.utils.SteamSaveIndex;
 import com.axperty.svsm.utils.TableBuilder;
+import com.axperty.svsm.utils.TableSearch;
+import com.axperty.svsm.utils.TaskRunner;
 import com.axperty.svsm.utils.TransferSave;
 
 import javax.swing.*;
-import javax.swing.event.DocumentEvent;
-import javax.swing.event.DocumentListener;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.table.TableRowSorter;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
 import java.util.*;
 import java.util.List;
 
@@ -25,17 +42,26 @@ public class StardewValleySavesManager {
     private JTabbedPane tabbedPane;
     private JTable androidTable;
     private JTable steamTable;
-    private JTextField steamSearchField;
-    private JTextField androidSearchField;
-    private TableRowSorter<DefaultTableModel> steamSorter;
-    private TableRowSorter<DefaultTableModel> androidSorter;
+    private JLabel statusLabel;
+    private JLabel steamSummaryLabel;
+    private JLabel androidSummaryLabel;
+    private DiskUsage.Usage backupUsage;
+    private JButton cancelButton;
     private ResourceBundle bundle;
 
     public static void main(String[] args) {
+        // Any argument runs a command without opening the window
+        if (args.length > 0) {
+            System.exit(CommandLine.run(args));
+        }
+
+        long startTime = System.nanoTime();
         EventQueue.invokeLater(() -> {
             try {
                 StardewValleySavesManager window = new StardewValleySavesManager();
+                window.logFirstPaint(startTime);
                 window.frame.setVisible(true);
+                window.startBackgroundTasks(startTime);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -59,7 +85,7 @@ public class StardewValleySavesManager {
         frame = new JFrame();
         // Set window title using resource bundle
         frame.setTitle(bundle.getString("window.title"));
-        frame.setSize(550, 350);
+        frame.setSize(900, 400);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
         // Set window to appear in the center
@@ -76,6 +102,14 @@ public class StardewValleySavesManager {
         refreshList.addActionListener(e -> TableBuilder.updateTables(androidTable, steamTable));
         optionsMenu.add(refreshList);
 
+        JMenuItem backupsMenuItem = new JMenuItem(bundle.getString("menu.options.backups"));
+        backupsMenuItem.addActionListener(e -> showBackupsDialog());
+        optionsMenu.add(backupsMenuItem);
+
+        JMenuItem diagnosticsMenuItem = new JMenuItem(bundle.getString("menu.options.diagnostics"));
+        diagnosticsMenuItem.addActionListener(e -> new DiagnosticsDialog(frame, bundle).show());
+        optionsMenu.add(diagnosticsMenuItem);
+
         menuBar.add(optionsMenu);
 
         // Help Menu
@@ -100,18 +134,114 @@ public class StardewValleySavesManager {
         frame.getContentPane().add(tabbedPane, BorderLayout.CENTER);
 
         // Steam Panel
-        steamTable = TableBuilder.createTable(bundle);
+        steamTable = TableBuilder.createSteamTable(bundle);
         JPanel steamPanel = createPlatformPanel(steamTable);
         tabbedPane.addTab(bundle.getString("panel.steam_folder.title"), steamPanel);
 
         // Android Panel
-        androidTable = TableBuilder.createTable(bundle);
+        androidTable = TableBuilder.createAndroidTable(bundle);
         JPanel androidPanel = createPlatformPanel(androidTable);
         tabbedPane.addTab(bundle.getString("panel.android_folder.title"), androidPanel);
 
-        // Initial actions
-        //backupAllSteamSaves();
-        TableBuilder.updateSteamTable(steamTable);
+        // Status bar showing the operations running in the background
+        frame.getContentPane().add(createStatusBar(), BorderLayout.SOUTH);
+
+        // The saves of the last run until the first scans finish, nothing is scanned before the window shows
+        ListingCache cache = ListingCache.get();
+        if (!TableBuilder.showCachedSaves(steamTable, cache.getSteamSaves())) {
+            TableBuilder.showPlaceholder(steamTable, bundle.getString("table.placeholder.loading"));
+        }
+        if (!TableBuilder.showCachedSaves(androidTable, cache.getAndroidSaves())) {
+            TableBuilder.showPlaceholder(androidTable, bundle.getString("table.placeholder.searching_device"));
+        }
+        TableBuilder.watchSteamTable(steamTable);
+    }
+
+    // Startup work, run in the background by priority once the window is visible:
+    // the Steam list first, then the automatic backup, then following the Android devices
+    private void startBackgroundTasks(long startTime) {
+        TableBuilder.updateSteamTable(steamTable, () -> {
+            System.out.println("Startup: Steam saves listed after " + elapsedMillis(startTime) + " ms");
+            TaskRunner.submit(bundle.getString("task.backup_all"), () -> {
+                backupAllSteamSaves();
+
+                // Saves left in the trash by a run that was closed before the delete was kept or undone,
+                // deletes made since this run started may still be undone
+                Path savesDirectory = SaveLocations.getGameSavesPath();
+                if (savesDirectory != null) {
+                    SaveTrash.purgeLeftovers(savesDirectory);
+                }
+                return null;
+            }, done -> watchAndroidDevices(), ex -> watchAndroidDevices());
+        });
+    }
+
+    // Follow devices being connected and disconnected, a device is scanned as soon as it shows up.
+    // The saves of an unplugged device stay in the table as stale rows.
+    private void watchAndroidDevices() {
+        DeviceMonitor.addListener((added, removed) -> {
+            for (DeviceRegistry.Device device : removed) {
+                TableBuilder.markAndroidDeviceOffline(androidTable, device.getSerial());
+            }
+            if (DeviceRegistry.getDevices().isEmpty() && TableBuilder.getModel(androidTable).getSaves().isEmpty()) {
+                TableBuilder.showPlaceholder(androidTable, null);
+            }
+            for (DeviceRegistry.Device device : added) {
+                TableBuilder.addAndroidDevice(androidTable, device.getSerial());
+            }
+        });
+        DeviceMonitor.start();
+    }
+
+    private void logFirstPaint(long startTime) {
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                // Runs after the paint events queued when the window opened
+                EventQueue.invokeLater(() -> System.out.println("Startup: first paint after " + elapsedMillis(startTime) + " ms"));
+                frame.removeWindowListener(this);
+            }
+        });
+    }
+
+    private static long elapsedMillis(long startTime) {
+        return (System.nanoTime() - startTime) / 1_000_000;
+    }
+
+    // Status Bar
+    private JPanel createStatusBar() {
+        JPanel statusBar = new JPanel(new BorderLayout());
+        statusBar.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+
+        statusLabel = new JLabel(bundle.getString("status.ready"));
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+
+        cancelButton = new JButton(bundle.getString("button.cancel"));
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> TaskRunner.cancelAll());
+        statusBar.add(cancelButton, BorderLayout.EAST);
+
+        TaskRunner.addListener(this::updateStatusBar);
+        return statusBar;
+    }
+
+    private void updateStatusBar() {
+        List<TaskRunner.Task<?>> tasks = TaskRunner.getRunningTasks();
+        cancelButton.setEnabled(!tasks.isEmpty());
+        if (tasks.isEmpty()) {
+            statusLabel.setText(bundle.getString("status.ready"));
+            return;
+        }
+
+        TaskRunner.Task<?> task = tasks.get(0);
+        String text = bundle.getString("status.running") + " " + task.getLabel();
+        if (task.getProgress() != null) {
+            text += " (" + task.getProgress() + ")";
+        }
+        if (tasks.size() > 1) {
+            text += " +" + (tasks.size() - 1) + " " + bundle.getString("status.more_tasks");
+        }
+        statusLabel.setText(text);
     }
 
     // About Dialog
@@ -184,52 +314,31 @@ public class StardewValleySavesManager {
         JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         JLabel searchLabel = new JLabel(bundle.getString("search.bar.title"));
         JTextField searchField = new JTextField(15);
+        JCheckBox regexBox = new JCheckBox(bundle.getString("search.regex"));
         searchPanel.add(searchLabel);
         searchPanel.add(searchField);
-        centerPanel.add(searchPanel, BorderLayout.SOUTH);
+        searchPanel.add(regexBox);
 
-        // Add search functionality based on the table
+        // Summary of the saves in the table, and the space used by backups for Steam
+        JLabel summaryLabel = new JLabel(" ", SwingConstants.CENTER);
         if (table == steamTable) {
-            steamSearchField = searchField;
-            steamSorter = new TableRowSorter<>((DefaultTableModel) steamTable.getModel());
-            steamTable.setRowSorter(steamSorter);
-            searchField.getDocument().addDocumentListener(new DocumentListener() {
-                @Override
-                public void insertUpdate(DocumentEvent e) {
-                    filterTable(steamSearchField, steamSorter);
-                }
-
-                @Override
-                public void removeUpdate(DocumentEvent e) {
-                    filterTable(steamSearchField, steamSorter);
-                }
-
-                @Override
-                public void changedUpdate(DocumentEvent e) {
-                    filterTable(steamSearchField, steamSorter);
-                }
-            });
-        } else if (table == androidTable) {
-            androidSearchField = searchField;
-            androidSorter = new TableRowSorter<>((DefaultTableModel) androidTable.getModel());
-            androidTable.setRowSorter(androidSorter);
-            searchField.getDocument().addDocumentListener(new DocumentListener() {
-                @Override
-                public void insertUpdate(DocumentEvent e) {
-                    filterTable(androidSearchField, androidSorter);
-                }
+            steamSummaryLabel = summaryLabel;
+        } else {
+            androidSummaryLabel = summaryLabel;
+        }
+        javax.swing.Timer summaryTimer = new javax.swing.Timer(200, e -> updateSummary(table));
+        summaryTimer.setRepeats(false);
+        TableBuilder.getModel(table).addTableModelListener(e -> summaryTimer.restart());
 
-                @Override
-                public void removeUpdate(DocumentEvent e) {
-                    filterTable(androidSearchField, androidSorter);
-                }
+        JPanel footerPanel = new JPanel(new BorderLayout());
+        footerPanel.add(searchPanel, BorderLayout.CENTER);
+        footerPanel.add(summaryLabel, BorderLayout.SOUTH);
+        centerPanel.add(footerPanel, BorderLayout.SOUTH);
 
-                @Override
-                public void changedUpdate(DocumentEvent e) {
-                    filterTable(androidSearchField, androidSorter);
-                }
-            });
-        }
+        // Add search functionality based on the table
+        TableRowSorter<SaveTableModel> sorter = new TableRowSorter<>(TableBuilder.getModel(table));
+        table.setRowSorter(sorter);
+        TableSearch.install(sorter, searchField, regexBox);
 
         // Panel for buttons to arrange them horizontally
         JPanel buttonPanel = new JPanel(new FlowLayout());
@@ -247,54 +356,179 @@ public class StardewValleySavesManager {
 
         // Delete Save button
         JButton deleteButton = new JButton(bundle.getString("button.delete_save"));
-        deleteButton.addActionListener(e -> deleteSave(table));
+        deleteButton.addActionListener(e -> deleteSaves(table));
         buttonPanel.add(deleteButton);
 
+        // Zip archive buttons
+        JButton exportButton = new JButton(bundle.getString("button.export"));
+        exportButton.addActionListener(e -> exportSaves(table));
+        buttonPanel.add(exportButton);
+
+        JButton importButton = new JButton(bundle.getString("button.import"));
+        importButton.addActionListener(e -> importArchive(table));
+        buttonPanel.add(importButton);
+
         panel.add(buttonPanel, BorderLayout.SOUTH);
         return panel;
     }
 
-    private void filterTable(JTextField searchField, TableRowSorter<DefaultTableModel> sorter) {
-        String text = searchField.getText();
-        if (text.trim().length() == 0) {
-            sorter.setRowFilter(null);
-        } else {
-            try {
-                // Search in both Save Name and ID columns
-                sorter.setRowFilter(RowFilter.regexFilter("(?i)" + text, 0, 1));
-            } catch (java.util.regex.PatternSyntaxException e) {
-                System.err.println("Invalid regex pattern: " + e.getMessage());
+    // Number of saves, their total size and files, and for Steam the size of the backups
+    private void updateSummary(JTable table) {
+        SaveTableModel model = TableBuilder.getModel(table);
+        DiskUsage.Usage usage = model.getTotalUsage();
+        String text = model.getSaves().size() + " " + bundle.getString("summary.saves") + " - "
+                + SaveSync.formatSize(usage.bytes()) + " (" + usage.files() + " " + bundle.getString("summary.files") + ")";
+        if (table == steamTable) {
+            if (backupUsage != null) {
+                text += " - " + bundle.getString("summary.backups") + " " + SaveSync.formatSize(backupUsage.bytes());
             }
+            steamSummaryLabel.setText(text);
+        } else {
+            androidSummaryLabel.setText(text);
         }
     }
 
+    // Measure the backup folder in the background, only chunk folders that changed are walked
+    private void updateBackupUsage() {
+        TaskRunner.submit(bundle.getString("task.measure_backups"), () -> BackupStore.getDefault().getDiskUsage(), usage -> {
+            backupUsage = usage;
+            updateSummary(steamTable);
+        }, null);
+    }
+
     // Move Save Between Platforms
     private void moveSaveBetweenPlatforms(JTable sourceTable, String targetPlatform) {
-        int selectedRow = sourceTable.getSelectedRow();
-        if (selectedRow != -1) {
-            String saveName = (String) sourceTable.getValueAt(selectedRow, 0);
-            String saveId = (String) sourceTable.getValueAt(selectedRow, 1);
-
-            if (targetPlatform.equals("Steam")) {
-                TransferSave.moveSaveToSteam(saveName, saveId);
-            } else if (targetPlatform.equals("Android")) {
-                TransferSave.moveSaveToAndroid(saveName, saveId);
+        SaveInfo selected = TableBuilder.getSelectedSave(sourceTable);
+        if (selected != null) {
+            if (!isConnected(List.of(selected))) {
+                return;
             }
+            String saveName = selected.getSaveName();
+            String saveId = selected.getSaveId();
+            boolean toSteam = targetPlatform.trim().equals("Steam");
+            String folderName = saveName + "_" + saveId;
+
+            // A save moves to Steam from the device it is on, and to Android on one or every connected device
+            List<String> devices = toSteam
+                    ? Collections.singletonList(selected.getDevice())
+                    : chooseDevices();
+            if (devices == null) {
+                return;
+            }
+            if (devices.isEmpty() || devices.contains(null)) {
+                JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.no_device_move"),
+                        bundle.getString("dialog.error.no_device_move.title"), JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            // Compare both copies first, then confirm the changes before transferring anything
+            TaskRunner.submit(bundle.getString("task.compare_save") + " " + folderName,
+                    () -> toSteam
+                            ? List.of(TransferSave.planMoveToSteam(devices.get(0), saveName, saveId))
+                            : TransferSave.planMoveToAndroid(devices, selected),
+                    plans -> {
+                        List<SaveSync.Plan> changes = new ArrayList<>();
+                        StringBuilder summary = new StringBuilder();
+                        for (SaveSync.Plan plan : plans) {
+                            if (!plan.isEmpty()) {
+                                changes.add(plan);
+                                summary.append("\n").append(plans.size() > 1 ? DeviceRegistry.getLabel(plan.getDevice()) + ": " : "")
+                                        .append(formatPlan(plan));
+                            }
+                        }
+                        if (changes.isEmpty()) {
+                            JOptionPane.showMessageDialog(frame, bundle.getString("dialog.move_up_to_date"));
+                            return;
+                        }
+                        int confirm = JOptionPane.showConfirmDialog(frame,
+                                bundle.getString("dialog.confirm_move") + summary,
+                                bundle.getString("dialog.confirm_move.title"),
+                                JOptionPane.YES_NO_OPTION);
+                        if (confirm == JOptionPane.YES_OPTION) {
+                            applyMoves(changes, folderName, toSteam);
+                        }
+                    },
+                    ex -> {
+                        System.err.println("Error comparing save: " + ex.getMessage());
+                        JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.device_moving_save"));
+                    });
         } else {
             JOptionPane.showMessageDialog(frame, bundle.getString("dialog.select_save_to_move"));
         }
     }
 
+    // Dry-run summary of a move in the user's language
+    private String formatPlan(SaveSync.Plan plan) {
+        String size = SaveSync.formatSize(plan.getBytesToCopy());
+        if (plan.isFullCopy()) {
+            return MessageFormat.format(bundle.getString("dialog.move_summary.full_copy"), plan.getFilesToCopy().size(), size);
+        }
+        return MessageFormat.format(bundle.getString("dialog.move_summary"), plan.getFilesToCopy().size(), size,
+                plan.getFilesToDelete().size(), plan.getUnchangedCount());
+    }
+
+    // Ask which device to move a save to when several are connected.
+    // Returns the chosen serials, every device for "All devices", or null if the user cancelled.
+    private List<String> chooseDevices() {
+        List<DeviceRegistry.Device> devices = DeviceRegistry.getDevices();
+        if (devices.size() <= 1) {
+            return DeviceRegistry.getSerials();
+        }
+
+        List<Object> options = new ArrayList<>();
+        options.add(bundle.getString("dialog.all_devices"));
+        options.addAll(devices);
+        Object choice = JOptionPane.showInputDialog(frame, bundle.getString("dialog.select_device"),
+                bundle.getString("dialog.select_device.title"), JOptionPane.QUESTION_MESSAGE, null,
+                options.toArray(), options.get(0));
+        if (choice == null) {
+            return null;
+        }
+        return (choice instanceof DeviceRegistry.Device device)
+                ? List.of(device.getSerial())
+                : DeviceRegistry.getSerials();
+    }
+
+    // Transfer to every device at the same time
+    private void applyMoves(List<SaveSync.Plan> plans, String folderName, boolean toSteam) {
+        TaskRunner.Task<List<String>> task = TaskRunner.submit(bundle.getString("task.move_save") + " " + folderName,
+                () -> TransferSave.applyMoves(plans),
+                failed -> {
+                    if (toSteam) {
+                        // The replaced copy was snapshotted in the backup store
+                        refreshSteamSave(folderName);
+                        updateBackupUsage();
+                    } else {
+                        TableBuilder.updateAndroidTable(androidTable);
+                    }
+                    if (failed.isEmpty()) {
+                        JOptionPane.showMessageDialog(frame, bundle.getString("dialog.move_successful"));
+                    } else if (plans.size() > 1) {
+                        List<String> labels = new ArrayList<>();
+                        for (String device : failed) {
+                            labels.add(DeviceRegistry.getLabel(device));
+                        }
+                        JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.move_failed_devices")
+                                + "\n" + String.join("\n", labels));
+                    } else {
+                        JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.device_moving_save"));
+                    }
+                },
+                ex -> JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.device_moving_save")));
+        new TransferProgressDialog(frame, bundle, task).show();
+    }
+
     private void backupSave(JTable table) {
-        int selectedRow = table.getSelectedRow();
-        if (selectedRow != -1) {
-            String saveName = (String) table.getValueAt(selectedRow, 0);
-            String saveId = (String) table.getValueAt(selectedRow, 1);
+        SaveInfo selected = TableBuilder.getSelectedSave(table);
+        if (selected != null) {
+            if (!isConnected(List.of(selected))) {
+                return;
+            }
+            String folderName = selected.getFolderName();
+            String device = selected.getDevice();
 
-            // Get source path based on selected tab
-            String sourcePath = (table == androidTable)
-                    ? "/storage/emulated/0/Android/data/com.chucklefish.stardewvalley/files/Saves/" + saveName + "_" + saveId
-                    : System.getenv("APPDATA") + "/StardewValley/Saves/" + saveName + "_" + saveId;
+            // Local saves can be in any save location
+            Path sourcePath = SaveLocations.resolve(selected);
 
             // Open file chooser dialog
             JFileChooser fileChooser = new JFileChooser();
@@ -302,27 +536,19 @@ public class StardewValleySavesManager {
             int result = fileChooser.showSaveDialog(frame);
 
             if (result == JFileChooser.APPROVE_OPTION) {
-                Path destinationPath = Paths.get(fileChooser.getSelectedFile().getAbsolutePath(), saveName + "_" + saveId);
-                try {
-                    if (sourcePath.startsWith("/storage")) {
-                        // Use ADB to pull the save from Android
-                        String[] command = {"adb", "pull", sourcePath, destinationPath.toString()};
-                        Process process = Runtime.getRuntime().exec(command);
-                        int exitCode = process.waitFor();
-                        if (exitCode == 0) {
-                            JOptionPane.showMessageDialog(frame, "Save backed up successfully!");
-                        } else {
-                            System.err.println("Error backing up save from Android. Exit code: " + exitCode);
-                            JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.backup.device"));
-                        }
-                    } else {
-                        // Copy the save locally
-                        Files.copy(Paths.get(sourcePath), destinationPath, StandardCopyOption.REPLACE_EXISTING);
-                        JOptionPane.showMessageDialog(frame, bundle.getString("dialog.success.backup_device"));
-                    }
-                } catch (IOException | InterruptedException ex) {
+                Path destinationPath = Paths.get(fileChooser.getSelectedFile().getAbsolutePath(), folderName);
+                TaskRunner.Task<Boolean> task = TaskRunner.submit(bundle.getString("task.backup_save") + " " + folderName, () -> {
+                    return device != null
+                            ? TransferSave.backupAndroidSave(device, folderName, destinationPath)
+                            : TransferSave.backupSteamSave(sourcePath, destinationPath);
+                }, success -> JOptionPane.showMessageDialog(frame, success
+                        ? bundle.getString("dialog.success.backup_device")
+                        : bundle.getString("dialog.error.backup.device")), ex -> {
                     ex.printStackTrace();
                     JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.backup.device"));
+                });
+                if (device != null) {
+                    new TransferProgressDialog(frame, bundle, task).show();
                 }
             }
         } else {
@@ -330,114 +556,314 @@ public class StardewValleySavesManager {
         }
     }
 
-    private void deleteSave(JTable table) {
-        int selectedRow = table.getSelectedRow();
-        if (selectedRow != -1) {
-            String saveName = (String) table.getValueAt(selectedRow, 0);
-            String saveId = (String) table.getValueAt(selectedRow, 1);
-
-            // Confirmation dialog
-            int result = JOptionPane.showConfirmDialog(frame,
-                    "Are you sure you want to delete the save \"" + saveName + "_" + saveId + "\"?",
-                    "Confirm Delete",
-                    JOptionPane.YES_NO_OPTION);
-
-            if (result == JOptionPane.YES_OPTION) {
-                String savePath = (table == androidTable)
-                        ? "/storage/emulated/0/Android/data/com.chucklefish.stardewvalley/files/Saves/" + saveName + "_" + saveId
-                        : System.getenv("APPDATA") + "/StardewValley/Saves/" + saveName + "_" + saveId;
-
-                try {
-                    if (table == androidTable) {
-                        // Execute ADB command to delete save from Android
-                        String[] deleteCommand = {"adb", "shell", "rm", "-rf", savePath};
-                        Process deleteProcess = Runtime.getRuntime().exec(deleteCommand);
-                        int deleteExitCode = deleteProcess.waitFor();
-                        if (deleteExitCode != 0) {
-                            System.err.println("Error deleting save from Android. Exit code: " + deleteExitCode);
-                            JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.delete_save"));
-                            return;
-                        }
-                    } else {
-                        // Delete save from Steam folder using Java File API
-                        Files.walk(Paths.get(savePath))
-                                .sorted((p1, p2) -> -1 * p1.compareTo(p2)) // Delete files first, then directory
-                                .forEach(path -> {
-                                    try {
-                                        Files.delete(path);
-                                    } catch (IOException ex) {
-                                        System.err.println("Error deleting " + path + ": " + ex.getMessage());
-                                        JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.delete_save"));
-                                    }
-                                });
-                    }
+    // Write the selected saves into one zip file, which can be imported on another computer or device
+    private void exportSaves(JTable table) {
+        List<SaveInfo> selected = TableBuilder.getSelectedSaves(table);
+        if (selected.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, bundle.getString("dialog.select_save_to_export"));
+            return;
+        }
+        if (!isConnected(selected)) {
+            return;
+        }
 
-                    TableBuilder.updateTables(steamTable, androidTable);
-                    JOptionPane.showMessageDialog(frame, "Save deleted successfully!");
-                } catch (IOException | InterruptedException ex) {
-                    ex.printStackTrace();
-                    JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.delete_save"));
-                }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileFilter(new FileNameExtensionFilter(bundle.getString("dialog.archive.filter"), "zip"));
+        fileChooser.setSelectedFile(new File(selected.size() == 1 ? selected.get(0).getFolderName() + ".zip" : "Saves.zip"));
+        if (fileChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = fileChooser.getSelectedFile().toPath();
+        if (!file.getFileName().toString().toLowerCase().endsWith(".zip")) {
+            file = file.resolveSibling(file.getFileName() + ".zip");
+        }
+        if (Files.exists(file) && JOptionPane.showConfirmDialog(frame, bundle.getString("dialog.confirm_overwrite") + " " + file,
+                bundle.getString("dialog.export.title"), JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        Path zipFile = file;
+        TaskRunner.Task<Path> task = TaskRunner.submit(bundle.getString("task.export_saves") + " " + selected.size(), () -> {
+            SaveArchive.export(selected, zipFile);
+            return zipFile;
+        }, exported -> JOptionPane.showMessageDialog(frame, bundle.getString("dialog.success.export") + " " + exported), ex -> {
+            System.err.println("Error exporting saves: " + ex.getMessage());
+            JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.export") + "\n" + ex.getMessage(),
+                    bundle.getString("dialog.export.title"), JOptionPane.ERROR_MESSAGE);
+        });
+        if (selected.stream().anyMatch(save -> save.getDevice() != null)) {
+            new TransferProgressDialog(frame, bundle, task).show();
+        }
+    }
+
+    // Import the saves of a zip file into the game's Saves folder, or into one or every device.
+    // Saves that exist already are replaced, on Steam after a snapshot in the backup store.
+    private void importArchive(JTable table) {
+        boolean android = (table == androidTable);
+        List<String> devices = android ? chooseDevices() : null;
+        if (android && devices == null) {
+            return;
+        }
+        if (android && devices.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.no_device_move"),
+                    bundle.getString("dialog.error.no_device_move.title"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileFilter(new FileNameExtensionFilter(bundle.getString("dialog.archive.filter"), "zip"));
+        if (fileChooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path zipFile = fileChooser.getSelectedFile().toPath();
+        if (JOptionPane.showConfirmDialog(frame, bundle.getString("dialog.confirm_import") + "\n" + zipFile,
+                bundle.getString("dialog.import.title"), JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        // Each device reads the archive on its own, failures are listed with their device
+        TaskRunner.Task<SaveArchive.Result> task = TaskRunner.submit(bundle.getString("task.import_saves") + " " + zipFile.getFileName(), () -> {
+            if (!android) {
+                return SaveArchive.importToSteam(zipFile);
             }
-        } else {
-            JOptionPane.showMessageDialog(frame, bundle.getString("dialog.select_save_to_delete"));
+            List<String> imported = Collections.synchronizedList(new ArrayList<>());
+            List<String> failed = Collections.synchronizedList(new ArrayList<>());
+            String suffix = devices.size() > 1 ? " (%s)" : "";
+            Map<String, Exception> errors = DeviceRegistry.runOnEach(devices, device -> {
+                SaveArchive.Result result = SaveArchive.importToAndroid(zipFile, device);
+                imported.addAll(result.imported());
+                result.failed().forEach(folder -> failed.add(folder + String.format(suffix, DeviceRegistry.getLabel(device))));
+            });
+            if (errors.size() == devices.size()) {
+                throw errors.values().iterator().next();
+            }
+            errors.forEach((device, error) -> failed.add(DeviceRegistry.getLabel(device) + ": " + error.getMessage()));
+            return new SaveArchive.Result(imported, failed);
+        }, result -> {
+            if (android) {
+                TableBuilder.updateAndroidTable(androidTable);
+            } else {
+                // The replaced copies were snapshotted in the backup store
+                result.imported().forEach(this::refreshSteamSave);
+                updateBackupUsage();
+            }
+            String message = bundle.getString("dialog.success.import") + " " + new LinkedHashSet<>(result.imported()).size();
+            if (!result.failed().isEmpty()) {
+                message += "\n\n" + bundle.getString("dialog.error.import_saves") + "\n" + String.join("\n", result.failed());
+            }
+            JOptionPane.showMessageDialog(frame, message, bundle.getString("dialog.import.title"),
+                    result.failed().isEmpty() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.ERROR_MESSAGE);
+        }, ex -> {
+            System.err.println("Error importing saves: " + ex.getMessage());
+            JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.import") + "\n" + ex.getMessage(),
+                    bundle.getString("dialog.import.title"), JOptionPane.ERROR_MESSAGE);
+        });
+        if (android) {
+            new TransferProgressDialog(frame, bundle, task).show();
         }
     }
 
-    private void backupAllSteamSaves() {
-        String appDataPath = System.getenv("APPDATA");
-        if (appDataPath == null) {
-            System.err.println("Error: Unable to get APPDATA environment variable.");
+    // Move the selected saves to the trash, a single rename each (one adb command per device), then offer to undo.
+    // Only the rows of the deleted saves change, and the trash is emptied in the background once the delete is kept.
+    private void deleteSaves(JTable table) {
+        List<SaveInfo> selected = TableBuilder.getSelectedSaves(table);
+        if (selected.isEmpty()) {
+            JOptionPane.showMessageDialog(frame, bundle.getString("dialog.select_save_to_delete"));
+            return;
+        }
+        boolean android = (table == androidTable);
+        if (!isConnected(selected)) {
             return;
         }
 
-        String savesDirectory = appDataPath + "/StardewValley/Saves";
-        String backupDirectory = System.getProperty("user.dir") + "/SteamSavesBackup"; // Backup folder in the same directory as the jar
+        int result = JOptionPane.showConfirmDialog(frame,
+                bundle.getString("dialog.confirm_delete") + "\n" + listSaves(selected),
+                bundle.getString("dialog.confirm_delete.title"),
+                JOptionPane.YES_NO_OPTION);
+        if (result != JOptionPane.YES_OPTION) {
+            return;
+        }
 
-        // Create the "Backup" directory if it doesn't exist
-        Path backupPath = Paths.get(backupDirectory);
-        if (!Files.exists(backupPath)) {
-            try {
-                Files.createDirectory(backupPath);
-            } catch (IOException e) {
-                System.err.println("Error creating backup directory: " + e.getMessage());
-                return; // Stop if directory creation fails
+        String label = bundle.getString("task.delete_save") + " "
+                + (selected.size() == 1 ? selected.get(0).getFolderName() : String.valueOf(selected.size()));
+        TaskRunner.submit(label, () -> trashSaves(selected, android), batches -> {
+            List<SaveInfo> trashed = new ArrayList<>();
+            List<SaveInfo> failed = new ArrayList<>();
+            for (SaveInfo save : selected) {
+                boolean moved = batches.stream().anyMatch(batch -> inBatch(batch, save));
+                (moved ? trashed : failed).add(save);
+            }
+            List<SaveInfo> unwatched = trashed.stream().filter(save -> !isWatched(save)).toList();
+            TableBuilder.getModel(table).removeSaves(unwatched);
+            unwatched.forEach(save -> ListingCache.get().removeSave(save.getFolderName(), save.getDevice(), save.getLocation()));
+
+            String message = bundle.getString("dialog.deleted") + " " + trashed.size();
+            if (!failed.isEmpty()) {
+                message += "\n\n" + bundle.getString("dialog.error.delete_saves") + "\n" + listSaves(failed);
+            }
+            if (trashed.isEmpty()) {
+                JOptionPane.showMessageDialog(frame, message, bundle.getString("dialog.error.delete_save"), JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            Object[] options = {bundle.getString("button.undo"), bundle.getString("button.close")};
+            int choice = JOptionPane.showOptionDialog(frame, message, bundle.getString("dialog.confirm_delete.title"),
+                    JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE, null, options, options[1]);
+            if (choice == 0) {
+                undoDelete(table, batches, trashed);
+            } else {
+                purgeTrash(batches);
+            }
+        }, ex -> {
+            System.err.println("Error deleting saves: " + ex.getMessage());
+            JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.delete_save"));
+        });
+    }
+
+    // Saves of the game's Saves folder leave the table through the save index, which sees them disappear.
+    // Other local saves are moved to a trash next to their own save location.
+    private List<SaveTrash.Batch> trashSaves(List<SaveInfo> saves, boolean android) throws IOException {
+        if (!android) {
+            Map<Path, List<String>> byLocation = new LinkedHashMap<>();
+            for (SaveInfo save : saves) {
+                Path folder = SaveLocations.resolve(save);
+                if (folder != null) {
+                    byLocation.computeIfAbsent(folder.getParent(), k -> new ArrayList<>()).add(save.getFolderName());
+                }
             }
+            List<SaveTrash.Batch> batches = new ArrayList<>();
+            for (Map.Entry<Path, List<String>> location : byLocation.entrySet()) {
+                SaveTrash.Batch batch = SaveTrash.trashSteamSaves(location.getKey(), location.getValue());
+                if (location.getKey().equals(SaveLocations.getGameSavesPath())) {
+                    batch.folders().forEach(this::refreshSteamSave);
+                }
+                batches.add(batch);
+            }
+            return batches;
+        }
+
+        Map<String, List<String>> byDevice = new LinkedHashMap<>();
+        for (SaveInfo save : saves) {
+            byDevice.computeIfAbsent(save.getDevice(), k -> new ArrayList<>()).add(save.getFolderName());
+        }
+        List<SaveTrash.Batch> batches = Collections.synchronizedList(new ArrayList<>());
+        DeviceRegistry.runOnEach(byDevice.keySet(), device -> batches.add(SaveTrash.trashAndroidSaves(device, byDevice.get(device))))
+                .forEach((device, error) -> System.err.println("Error deleting saves on " + device + ": " + error.getMessage()));
+        return batches;
+    }
+
+    // Put the saves back, the rows come back with the details they had
+    private void undoDelete(JTable table, List<SaveTrash.Batch> batches, List<SaveInfo> trashed) {
+        TaskRunner.submit(bundle.getString("task.undo_delete"), () -> {
+            List<SaveInfo> restored = new ArrayList<>();
+            for (SaveTrash.Batch batch : batches) {
+                List<String> folders = SaveTrash.restore(batch);
+                for (SaveInfo save : trashed) {
+                    if (inBatch(batch, save) && folders.contains(save.getFolderName())) {
+                        restored.add(save);
+                    }
+                }
+                if (batch.device() == null && batch.savesDirectory().equals(SaveLocations.getGameSavesPath())) {
+                    folders.forEach(this::refreshSteamSave);
+                }
+            }
+            // Whatever couldn't be restored stays deleted
+            for (SaveTrash.Batch batch : batches) {
+                SaveTrash.purge(batch);
+            }
+            return restored;
+        }, restored -> {
+            List<SaveInfo> unwatched = restored.stream().filter(save -> !isWatched(save)).toList();
+            TableBuilder.getModel(table).addSaves(unwatched);
+            unwatched.forEach(ListingCache.get()::putSave);
+            if (restored.size() < trashed.size()) {
+                JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.undo_delete"));
+            }
+        }, ex -> JOptionPane.showMessageDialog(frame, bundle.getString("dialog.error.undo_delete") + " " + ex.getMessage()));
+    }
+
+    private void purgeTrash(List<SaveTrash.Batch> batches) {
+        TaskRunner.submit(bundle.getString("task.purge_trash"), () -> {
+            for (SaveTrash.Batch batch : batches) {
+                SaveTrash.purge(batch);
+            }
+            return null;
+        }, null, null);
+    }
+
+    // True if a delete batch holds the save, the same folder name can be on several devices and in several save locations
+    private static boolean inBatch(SaveTrash.Batch batch, SaveInfo save) {
+        if (!Objects.equals(batch.device(), save.getDevice()) || !batch.folders().contains(save.getFolderName())) {
+            return false;
+        }
+        Path folder = SaveLocations.resolve(save);
+        return save.getDevice() != null || (folder != null && folder.getParent().equals(batch.savesDirectory()));
+    }
+
+    // Saves of the game's Saves folder are kept up to date in the table by the save index
+    private static boolean isWatched(SaveInfo save) {
+        return save.getDevice() == null && save.getLocation() == null;
+    }
+
+    // Saves of a disconnected device can be browsed but not changed, tell the user if any is selected
+    private boolean isConnected(List<SaveInfo> saves) {
+        for (SaveInfo save : saves) {
+            if (save.getDevice() != null && !DeviceRegistry.isConnected(save.getDevice())) {
+                JOptionPane.showMessageDialog(frame, bundle.getString("dialog.device_offline") + " "
+                        + DeviceRegistry.getLabel(save.getDevice()));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Folder names, one per line, with the device when several are connected, e.g. for a confirmation
+    private String listSaves(List<SaveInfo> saves) {
+        int shown = Math.min(saves.size(), 10);
+        StringBuilder list = new StringBuilder();
+        for (SaveInfo save : saves.subList(0, shown)) {
+            list.append("\n").append(save.getFolderName());
+            if (save.getDevice() != null && DeviceRegistry.getDevices().size() > 1) {
+                list.append(" (").append(DeviceRegistry.getLabel(save.getDevice())).append(")");
+            }
+        }
+        if (saves.size() > shown) {
+            list.append("\n").append(bundle.getString("dialog.and_more")).append(" ").append(saves.size() - shown);
+        }
+        return list.toString();
+    }
+
+    // Update a single Steam save in the index, the Steam table follows its changes
+    private void refreshSteamSave(String folderName) {
+        SteamSaveIndex index = SteamSaveIndex.get();
+        if (index != null) {
+            index.refresh(folderName);
+        }
+    }
+
+    // Take a snapshot of every Steam save, files that didn't change since the last one cost almost nothing
+    private void backupAllSteamSaves() {
+        Path savesDirectory = SaveLocations.getGameSavesPath();
+        if (savesDirectory == null) {
+            return;
         }
 
-        // Copy each save folder to the "Backup" directory
         try {
-            Files.list(Paths.get(savesDirectory))
-                    .filter(Files::isDirectory)
-                    .forEach(sourcePath -> {
-                        String saveName = sourcePath.getFileName().toString();
-                        Path destinationPath = Paths.get(backupDirectory, saveName);
-                        try {
-                            copyDirectory(sourcePath, destinationPath);
-                            System.out.println("Backed up save: " + saveName);
-                        } catch (IOException e) {
-                            System.err.println("Error backing up save " + saveName + ": " + e.getMessage());
-                        }
-                    });
+            BackupStore.Snapshot snapshot = BackupStore.getDefault().createSnapshot(savesDirectory);
+            System.out.println("Backed up " + snapshot.getFolders().size() + " saves in snapshot " + snapshot.getId());
         } catch (IOException e) {
-            System.err.println("Error reading saves directory: " + e.getMessage());
+            System.err.println("Error backing up Steam saves: " + e.getMessage());
         }
+        updateBackupUsage();
     }
 
-    // Helper function to recursively copy a directory
-    private void copyDirectory(Path source, Path destination) throws IOException {
-        if (Files.notExists(destination)) {
-            Files.createDirectory(destination);
+    private void showBackupsDialog() {
+        Path savesDirectory = SaveLocations.getGameSavesPath();
+        if (savesDirectory == null) {
+            return;
         }
+        new BackupsDialog(frame, bundle, BackupStore.getDefault(), savesDirectory, this::refreshSteamSave).show();
 
-        Files.walk(source)
-                .forEach(sourcePath -> {
-                    Path destPath = destination.resolve(source.relativize(sourcePath));
-                    try {
-                        Files.copy(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING);
-                    } catch (IOException e) {
-                        System.err.println("File already exists " + sourcePath + ": " + e.getMessage());
-                    }
-                });
+        // Old backups may have been pruned
+        updateBackupUsage();
     }
-}
\ No newline at end of file
+}
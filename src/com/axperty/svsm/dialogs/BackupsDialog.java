@@ -0,0 +1,119 @@
+package com.axperty.svsm.dialogs;
+
+import com.axperty.svsm.utils.BackupStore;
+import com.axperty.svsm.utils.TaskRunner;
+
+import javax.swing.*;
+import java.awt.*;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.function.Consumer;
+
+// Lists the snapshots of the backup store and lets the user restore or prune them
+public class BackupsDialog {
+    // Number of snapshots kept when pruning
+    private static final int KEEP_SNAPSHOTS = 10;
+
+    private final JDialog dialog;
+    private final ResourceBundle bundle;
+    private final BackupStore store;
+    private final Path savesDirectory;
+    private final Consumer<String> onRestored;
+    private final DefaultListModel<BackupStore.Snapshot> snapshotModel = new DefaultListModel<>();
+    private final DefaultListModel<String> folderModel = new DefaultListModel<>();
+    private final JList<BackupStore.Snapshot> snapshotList = new JList<>(snapshotModel);
+    private final JList<String> folderList = new JList<>(folderModel);
+
+    // onRestored is called with the folder name of each restored save
+    public BackupsDialog(JFrame frame, ResourceBundle bundle, BackupStore store, Path savesDirectory, Consumer<String> onRestored) {
+        this.bundle = bundle;
+        this.store = store;
+        this.savesDirectory = savesDirectory;
+        this.onRestored = onRestored;
+
+        dialog = new JDialog(frame, bundle.getString("dialog.backups.title"), true);
+        dialog.setSize(600, 350);
+        dialog.setLayout(new BorderLayout());
+
+        // Snapshots on the left, the saves of the selected snapshot on the right
+        snapshotList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        snapshotList.addListSelectionListener(e -> showFolders());
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT,
+                new JScrollPane(snapshotList), new JScrollPane(folderList));
+        splitPane.setResizeWeight(0.6);
+        dialog.add(splitPane, BorderLayout.CENTER);
+
+        // Buttons
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+
+        JButton restoreButton = new JButton(bundle.getString("button.restore"));
+        restoreButton.addActionListener(e -> restoreSelected());
+        buttonPanel.add(restoreButton);
+
+        JButton pruneButton = new JButton(bundle.getString("button.prune"));
+        pruneButton.addActionListener(e -> prune());
+        buttonPanel.add(pruneButton);
+
+        JButton closeButton = new JButton(bundle.getString("button.close"));
+        closeButton.addActionListener(e -> dialog.dispose());
+        buttonPanel.add(closeButton);
+
+        dialog.add(buttonPanel, BorderLayout.SOUTH);
+        dialog.setLocationRelativeTo(frame);
+    }
+
+    public void show() {
+        loadSnapshots();
+        dialog.setVisible(true);
+    }
+
+    private void loadSnapshots() {
+        TaskRunner.submit(bundle.getString("task.list_backups"), store::listSnapshots, snapshots -> {
+            snapshotModel.clear();
+            snapshotModel.addAll(snapshots);
+        }, ex -> JOptionPane.showMessageDialog(dialog, bundle.getString("dialog.error.backups") + " " + ex.getMessage()));
+    }
+
+    private void showFolders() {
+        folderModel.clear();
+        BackupStore.Snapshot snapshot = snapshotList.getSelectedValue();
+        if (snapshot != null) {
+            folderModel.addAll(snapshot.getFolders());
+        }
+    }
+
+    private void restoreSelected() {
+        BackupStore.Snapshot snapshot = snapshotList.getSelectedValue();
+        List<String> folders = folderList.getSelectedValuesList();
+        if (snapshot == null || folders.isEmpty()) {
+            JOptionPane.showMessageDialog(dialog, bundle.getString("dialog.select_backup_to_restore"));
+            return;
+        }
+
+        int result = JOptionPane.showConfirmDialog(dialog,
+                bundle.getString("dialog.confirm_restore") + "\n" + String.join("\n", folders),
+                bundle.getString("dialog.confirm_restore.title"),
+                JOptionPane.YES_NO_OPTION);
+        if (result != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        TaskRunner.submit(bundle.getString("task.restore_backup"), () -> {
+            for (String folder : folders) {
+                store.restore(snapshot, folder, savesDirectory.resolve(folder));
+            }
+            return null;
+        }, done -> {
+            folders.forEach(onRestored);
+            JOptionPane.showMessageDialog(dialog, bundle.getString("dialog.success.restore"));
+        }, ex -> JOptionPane.showMessageDialog(dialog, bundle.getString("dialog.error.backups") + " " + ex.getMessage()));
+    }
+
+    private void prune() {
+        TaskRunner.submit(bundle.getString("task.prune_backups"), () -> store.prune(KEEP_SNAPSHOTS), removed -> {
+            System.out.println("Pruned backups, removed " + removed + " unused chunks.");
+            loadSnapshots();
+        }, ex -> JOptionPane.showMessageDialog(dialog, bundle.getString("dialog.error.backups") + " " + ex.getMessage()));
+    }
+}
@@ -0,0 +1,128 @@
+package com.axperty.svsm.dialogs;
+
+import com.axperty.svsm.utils.AdbTransfer;
+import com.axperty.svsm.utils.Metrics;
+import com.axperty.svsm.utils.OperationLog;
+import com.axperty.svsm.utils.SaveSync;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+// Shows the latency of every timed operation, the devices and folders that took the longest,
+// the counters and the recent adb transfers, to find out what makes a refresh slow
+public class DiagnosticsDialog {
+    // Targets listed in the slowest targets tab
+    private static final int SLOWEST_TARGETS = 100;
+
+    private final JDialog dialog;
+    private final DefaultTableModel operationsModel;
+    private final DefaultTableModel targetsModel;
+    private final DefaultTableModel countersModel;
+    private final DefaultTableModel transfersModel;
+
+    public DiagnosticsDialog(JFrame frame, ResourceBundle bundle) {
+        dialog = new JDialog(frame, bundle.getString("dialog.diagnostics.title"), true);
+        dialog.setSize(760, 420);
+        dialog.setLayout(new BorderLayout());
+
+        operationsModel = createModel(bundle, "diagnostics.operation", "diagnostics.count", "diagnostics.errors",
+                "diagnostics.p50", "diagnostics.p95", "diagnostics.max", "diagnostics.total");
+        targetsModel = createModel(bundle, "diagnostics.target", "diagnostics.operation", "diagnostics.count",
+                "diagnostics.max", "diagnostics.total");
+        countersModel = createModel(bundle, "diagnostics.counter", "diagnostics.value");
+        transfersModel = createModel(bundle, "diagnostics.time", "diagnostics.transfer", "diagnostics.size",
+                "diagnostics.duration", "diagnostics.speed", "diagnostics.result");
+
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab(bundle.getString("diagnostics.tab.operations"), new JScrollPane(new JTable(operationsModel)));
+        tabs.addTab(bundle.getString("diagnostics.tab.targets"), new JScrollPane(new JTable(targetsModel)));
+        tabs.addTab(bundle.getString("diagnostics.tab.counters"), new JScrollPane(new JTable(countersModel)));
+        tabs.addTab(bundle.getString("diagnostics.tab.transfers"), new JScrollPane(new JTable(transfersModel)));
+        dialog.add(tabs, BorderLayout.CENTER);
+
+        // Buttons, with the location of the operation log
+        JPanel southPanel = new JPanel(new BorderLayout());
+        String logPath = OperationLog.getPath() != null ? OperationLog.getPath().toString() : bundle.getString("diagnostics.log_off");
+        JLabel logLabel = new JLabel(bundle.getString("diagnostics.log") + " " + logPath);
+        logLabel.setBorder(BorderFactory.createEmptyBorder(0, 8, 0, 8));
+        southPanel.add(logLabel, BorderLayout.NORTH);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+
+        JButton refreshButton = new JButton(bundle.getString("button.refresh"));
+        refreshButton.addActionListener(e -> load());
+        buttonPanel.add(refreshButton);
+
+        JButton resetButton = new JButton(bundle.getString("button.reset"));
+        resetButton.addActionListener(e -> {
+            Metrics.reset();
+            load();
+        });
+        buttonPanel.add(resetButton);
+
+        JButton closeButton = new JButton(bundle.getString("button.close"));
+        closeButton.addActionListener(e -> dialog.dispose());
+        buttonPanel.add(closeButton);
+
+        southPanel.add(buttonPanel, BorderLayout.SOUTH);
+        dialog.add(southPanel, BorderLayout.SOUTH);
+        dialog.setLocationRelativeTo(frame);
+    }
+
+    public void show() {
+        load();
+        dialog.setVisible(true);
+    }
+
+    private static DefaultTableModel createModel(ResourceBundle bundle, String... columnKeys) {
+        Object[] columns = new Object[columnKeys.length];
+        for (int i = 0; i < columnKeys.length; i++) {
+            columns[i] = bundle.getString(columnKeys[i]);
+        }
+        return new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+    }
+
+    // The metrics are kept in memory, so reading them is quick enough for the EDT
+    private void load() {
+        operationsModel.setRowCount(0);
+        for (Metrics.Histogram operation : Metrics.getOperations()) {
+            operationsModel.addRow(new Object[]{operation.getOperation(), operation.getCount(), operation.getErrors(),
+                    millis(operation.getPercentileNanos(0.5)), millis(operation.getPercentileNanos(0.95)),
+                    millis(operation.getMaxNanos()), millis(operation.getTotalNanos())});
+        }
+
+        targetsModel.setRowCount(0);
+        for (Metrics.TargetStats target : Metrics.getSlowestTargets(SLOWEST_TARGETS)) {
+            targetsModel.addRow(new Object[]{target.getTarget(), target.getOperation(), target.getCount(),
+                    millis(target.getMaxNanos()), millis(target.getTotalNanos())});
+        }
+
+        countersModel.setRowCount(0);
+        for (Map.Entry<String, Long> counter : Metrics.getCounters().entrySet()) {
+            countersModel.addRow(new Object[]{counter.getKey(), counter.getValue()});
+        }
+
+        transfersModel.setRowCount(0);
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss");
+        for (AdbTransfer.Record record : AdbTransfer.getHistory()) {
+            transfersModel.addRow(new Object[]{format.format(new Date(record.finished())),
+                    (record.toDevice() ? "push " : "pull ") + record.device() + " " + record.path(),
+                    SaveSync.formatSize(record.bytes()), record.millis() + " ms",
+                    SaveSync.formatSize(record.getBytesPerSecond()) + "/s", record.success() ? "OK" : "FAILED"});
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f ms", nanos / 1e6);
+    }
+}
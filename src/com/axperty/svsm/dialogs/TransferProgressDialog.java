@@ -0,0 +1,71 @@
+package com.axperty.svsm.dialogs;
+
+import com.axperty.svsm.utils.TaskRunner;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ResourceBundle;
+
+// Shows the progress of a running transfer with its speed and time left, and lets the user cancel it.
+// The dialog isn't modal and closes itself once the task finished.
+public class TransferProgressDialog {
+    private final JDialog dialog;
+    private final TaskRunner.Task<?> task;
+    private final JProgressBar progressBar = new JProgressBar(0, 1000);
+    private final JLabel detailsLabel = new JLabel(" ");
+    private final Runnable listener = this::update;
+
+    public TransferProgressDialog(JFrame frame, ResourceBundle bundle, TaskRunner.Task<?> task) {
+        this.task = task;
+
+        dialog = new JDialog(frame, bundle.getString("dialog.transfer.title"), false);
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        dialog.setLayout(new BorderLayout(0, 6));
+
+        JPanel progressPanel = new JPanel(new BorderLayout(0, 6));
+        progressPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 0, 10));
+        progressPanel.add(new JLabel(task.getLabel()), BorderLayout.NORTH);
+        progressBar.setIndeterminate(true);
+        progressPanel.add(progressBar, BorderLayout.CENTER);
+        progressPanel.add(detailsLabel, BorderLayout.SOUTH);
+        dialog.add(progressPanel, BorderLayout.CENTER);
+
+        // Cancelling destroys the adb process, the task then reports the transfer as failed
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+        JButton cancelButton = new JButton(bundle.getString("button.cancel"));
+        cancelButton.addActionListener(e -> {
+            cancelButton.setEnabled(false);
+            task.cancel();
+        });
+        buttonPanel.add(cancelButton);
+        dialog.add(buttonPanel, BorderLayout.SOUTH);
+
+        dialog.setSize(420, 150);
+        dialog.setLocationRelativeTo(frame);
+    }
+
+    public void show() {
+        TaskRunner.addListener(listener);
+        update();
+        if (!task.isFinished()) {
+            dialog.setVisible(true);
+        }
+    }
+
+    // Called on the EDT whenever a task reports progress
+    private void update() {
+        if (task.isFinished()) {
+            TaskRunner.removeListener(listener);
+            dialog.dispose();
+            return;
+        }
+        double fraction = task.getFraction();
+        progressBar.setIndeterminate(fraction < 0);
+        if (fraction >= 0) {
+            progressBar.setValue((int) (fraction * 1000));
+        }
+        if (task.getProgress() != null) {
+            detailsLabel.setText(task.getProgress());
+        }
+    }
+}
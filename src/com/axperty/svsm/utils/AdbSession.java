@@ -0,0 +1,169 @@
+package com.axperty.svsm.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Keeps one "adb shell" process open per device and runs every device command through it,
+// so each operation doesn't pay for a new process and adb handshake.
+public class AdbSession {
+    // adb executable, can be pointed to a fake script for testing with -Dsvsm.adb=/path/to/adb
+    public static final String ADB = System.getProperty("svsm.adb", "adb");
+
+    // Marks the end of a command's output, followed by its exit code
+    private static final String SENTINEL = "__SVSM_END_";
+
+    // Open sessions by device serial
+    private static final Map<String, AdbSession> sessions = new HashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(AdbSession::close));
+    }
+
+    private final String serial;
+    private final Process process;
+    private final BufferedWriter stdin;
+    private final BufferedReader stdout;
+    private long commandCounter = 0;
+
+    private AdbSession(String serial) throws IOException {
+        this.serial = serial;
+        ProcessBuilder builder = new ProcessBuilder(ADB, "-s", serial, "shell");
+        builder.redirectErrorStream(true);
+        process = builder.start();
+        stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    // Get the session of a device, starting a new one if there is none or the last one died
+    public static synchronized AdbSession get(String serial) throws IOException {
+        AdbSession session = sessions.get(serial);
+        if (session == null || !session.process.isAlive()) {
+            session = new AdbSession(serial);
+            sessions.put(serial, session);
+        }
+        return session;
+    }
+
+    // Close the session of a device
+    public static synchronized void close(String serial) {
+        AdbSession session = sessions.remove(serial);
+        if (session != null) {
+            session.process.destroy();
+        }
+    }
+
+    // Close a session that failed, unless it was already replaced by a new one
+    private static synchronized void discard(AdbSession session) {
+        session.process.destroy();
+        sessions.remove(session.serial, session);
+    }
+
+    // Close every session
+    public static synchronized void close() {
+        for (AdbSession session : sessions.values()) {
+            session.process.destroy();
+        }
+        sessions.clear();
+    }
+
+    // Run a one-off adb command that isn't addressed to a device (devices, version...)
+    public static Process exec(String... args) throws IOException {
+        String[] command = new String[args.length + 1];
+        command[0] = ADB;
+        System.arraycopy(args, 0, command, 1, args.length);
+        return new ProcessBuilder(command).start();
+    }
+
+    // Run a one-off adb command on a device that can't go through the shell (push, pull...)
+    public static Process execOnDevice(String serial, String... args) throws IOException {
+        String[] command = new String[args.length + 3];
+        command[0] = ADB;
+        command[1] = "-s";
+        command[2] = serial;
+        System.arraycopy(args, 0, command, 3, args.length);
+        return new ProcessBuilder(command).start();
+    }
+
+    // Quote a value so it can be used as a single shell argument on the device
+    public static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    // Run a shell command on the device and collect its output
+    public Result run(String command) throws IOException {
+        List<String> lines = new ArrayList<>();
+        int exitCode = stream(command, lines::add);
+        return new Result(exitCode, lines);
+    }
+
+    // Run a shell command on the device, passing each output line to the consumer as it arrives
+    public synchronized int stream(String command, Consumer<String> lineConsumer) throws IOException {
+        String sentinel = SENTINEL + (++commandCounter) + "__";
+
+        // Reads from the shell can't be interrupted, so a cancelled task closes the session instead
+        TaskRunner.CancelHook cancelHook = TaskRunner.onCancel(() -> discard(this));
+        try (Metrics.Span span = Metrics.start("adb.command", serial)) {
+            try {
+                stdin.write("(" + command + ") 2>&1; echo \"" + sentinel + " $?\"\n");
+                stdin.flush();
+
+                String line;
+                while ((line = stdout.readLine()) != null) {
+                    int index = line.indexOf(sentinel);
+                    if (index == -1) {
+                        lineConsumer.accept(line);
+                        continue;
+                    }
+
+                    // Output that didn't end with a new line shares the sentinel's line
+                    if (index > 0) {
+                        lineConsumer.accept(line.substring(0, index));
+                    }
+                    int exitCode = Integer.parseInt(line.substring(index + sentinel.length()).trim());
+                    if (exitCode != 0) {
+                        span.fail("Exit code " + exitCode);
+                    }
+                    return exitCode;
+                }
+            } catch (IOException | NumberFormatException e) {
+                span.fail(e);
+                discard(this);
+                throw new IOException("adb shell session failed: " + e.getMessage(), e);
+            }
+
+            // The shell exited, most likely because the device was disconnected
+            span.fail("Session closed");
+            discard(this);
+            throw new IOException("adb shell session closed unexpectedly.");
+        } finally {
+            cancelHook.close();
+        }
+    }
+
+    public static class Result {
+        private final int exitCode;
+        private final List<String> lines;
+
+        public Result(int exitCode, List<String> lines) {
+            this.exitCode = exitCode;
+            this.lines = lines;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+    }
+}
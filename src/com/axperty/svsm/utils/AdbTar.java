@@ -0,0 +1,616 @@
+package com.axperty.svsm.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Moves a whole save folder as one tar stream: the device runs tar and adb carries a single stream,
+// while push and pull go through the sync protocol file by file, which is slow for folders of many small files.
+// The archive is read and written here as it streams, nothing is written to a temporary file.
+// Selected with -Dsvsm.transfer=tar, push/pull are used otherwise and when the device has no tar.
+public class AdbTar {
+    private static final int BLOCK = 512;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_MILLIS = 250;
+    // Writable by the adb shell on every device
+    private static final String STATUS_FOLDER = "/data/local/tmp";
+
+    private static final boolean enabled = "tar".equalsIgnoreCase(System.getProperty("svsm.transfer"));
+    private static final Map<String, Boolean> supported = new ConcurrentHashMap<>();
+    private static final AtomicInteger statusCounter = new AtomicInteger();
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Checked once per device, tar is part of toybox since Android 6
+    public static boolean isSupported(String device) throws IOException {
+        Boolean result = supported.get(device);
+        if (result == null) {
+            result = AdbSession.get(device).run("command -v tar >/dev/null").getExitCode() == 0;
+            supported.put(device, result);
+        }
+        return result;
+    }
+
+    // Copy a device folder into a local folder that doesn't exist yet.
+    // totalBytes is the size being pulled, -1 to ask the device first.
+    public static boolean pull(String device, String remoteFolder, Path destination, long totalBytes)
+            throws IOException, InterruptedException {
+        if (totalBytes < 0) {
+            try {
+                totalBytes = AdbTransfer.remoteSize(device, List.of(remoteFolder));
+            } catch (IOException e) {
+                System.err.println("Unable to measure " + remoteFolder + " before pulling: " + e.getMessage());
+            }
+        }
+        int slash = remoteFolder.lastIndexOf('/');
+        String command = "tar -cf - -C " + AdbSession.quote(remoteFolder.substring(0, slash)) + " "
+                + AdbSession.quote(remoteFolder.substring(slash + 1));
+        return pullArchive(device, remoteFolder, totalBytes, command,
+                (input, progress) -> extract(input, remoteFolder.substring(slash + 1), destination, progress));
+    }
+
+    // Receives the entries of an archive as it streams. data is null for a folder, and what
+    // the visitor doesn't read of a file is skipped once it returns.
+    public interface EntryVisitor {
+        void visit(String path, InputStream data, long size, long mtime) throws IOException;
+    }
+
+    // Writes the entries of an archive as it streams to the device
+    public interface ArchiveWriter {
+        void write(TarOutput output) throws IOException;
+    }
+
+    // Stream several folders of a device folder as one archive, passing each entry to the visitor as it arrives.
+    // Entries are named <folder>/..., totalBytes is the size being pulled (-1 if unknown).
+    public static boolean pullEntries(String device, String parent, List<String> folders, long totalBytes, EntryVisitor visitor)
+            throws IOException, InterruptedException {
+        StringBuilder command = new StringBuilder("tar -cf - -C ").append(AdbSession.quote(parent));
+        for (String folder : folders) {
+            command.append(' ').append(AdbSession.quote(folder));
+        }
+        return pullArchive(device, parent, totalBytes, command.toString(),
+                (input, progress) -> readEntries(input, visitor, progress));
+    }
+
+    private interface ArchiveReader {
+        void read(InputStream input, Progress progress) throws IOException;
+    }
+
+    // exec-out carries stdout only, so errors would end up in the archive and are dropped, and the exit code
+    // of tar is lost. A tar that can't read a file still ends its archive properly, so it writes its exit code
+    // to a file on the device that is read once the whole archive arrived.
+    private static boolean pullArchive(String device, String path, long totalBytes, String command, ArchiveReader reader)
+            throws IOException, InterruptedException {
+        String status = AdbSession.quote(STATUS_FOLDER + "/svsm-tar-" + ProcessHandle.current().pid()
+                + "-" + statusCounter.incrementAndGet() + ".status");
+        boolean success = run(device, false, path, totalBytes, List.of("exec-out", command + " 2>/dev/null; echo $? > " + status),
+                (process, progress) -> {
+                    try (InputStream input = new BufferedInputStream(process.getInputStream(), BUFFER_SIZE)) {
+                        reader.read(input, progress);
+                        // tar pads the archive, adb would fail on a closed pipe if the rest wasn't read
+                        input.transferTo(OutputStream.nullOutputStream());
+                    }
+
+                    // The shell wrote the exit code before it closed the stream
+                    AdbSession.Result result = AdbSession.get(device).run("cat " + status + " && rm -f " + status);
+                    String exitCode = result.getLines().isEmpty() ? "" : result.getLines().get(0).trim();
+                    if (result.getExitCode() != 0 || !exitCode.equals("0")) {
+                        throw new IOException("tar failed on the device" + (exitCode.isEmpty() ? "" : ", exit code " + exitCode));
+                    }
+                });
+        if (!success && !TaskRunner.isCancelled()) {
+            try {
+                AdbSession.get(device).run("rm -f " + status);
+            } catch (IOException e) {
+                System.err.println("Unable to remove " + status + ": " + e.getMessage());
+            }
+        }
+        return success;
+    }
+
+    // Stream an archive written by the writer into a device folder, entries are created relative to it
+    public static boolean pushEntries(String device, String parent, long totalBytes, ArchiveWriter writer)
+            throws IOException, InterruptedException {
+        String quoted = AdbSession.quote(parent);
+        String command = "mkdir -p " + quoted + " && tar -xf - -C " + quoted;
+        return run(device, true, parent, totalBytes, List.of("exec-in", command),
+                (process, progress) -> {
+                    try (OutputStream output = new BufferedOutputStream(process.getOutputStream(), BUFFER_SIZE)) {
+                        TarOutput tar = new TarOutput(output, progress);
+                        writer.write(tar);
+                        tar.finish();
+                    }
+                });
+    }
+
+    // Copy a local folder into a device folder that doesn't exist yet
+    public static boolean push(String device, Path localFolder, String remoteFolder, long totalBytes)
+            throws IOException, InterruptedException {
+        int slash = remoteFolder.lastIndexOf('/');
+        String parent = AdbSession.quote(remoteFolder.substring(0, slash));
+        // exec-in passes stdin through untouched, "shell" may not on older devices
+        String command = "mkdir -p " + parent + " && tar -xf - -C " + parent;
+        return run(device, true, remoteFolder, totalBytes, List.of("exec-in", command),
+                (process, progress) -> {
+                    try (OutputStream output = new BufferedOutputStream(process.getOutputStream(), BUFFER_SIZE)) {
+                        archive(localFolder, remoteFolder.substring(slash + 1), output, progress);
+                    }
+                });
+    }
+
+    private interface Streamer {
+        void stream(Process process, Progress progress) throws IOException;
+    }
+
+    // Bytes of file content streamed so far, reported at most every PROGRESS_MILLIS
+    private static class Progress {
+        private final String device;
+        private final long totalBytes;
+        private final long start = System.nanoTime();
+        private long done;
+        private long lastReport;
+
+        private Progress(String device, long totalBytes) {
+            this.device = device;
+            this.totalBytes = totalBytes;
+        }
+
+        private void add(long bytes) {
+            done += bytes;
+            long now = System.nanoTime();
+            if (now - lastReport >= PROGRESS_MILLIS * 1_000_000) {
+                lastReport = now;
+                AdbTransfer.reportProgress(device, done, totalBytes, now - start);
+            }
+        }
+    }
+
+    private static boolean run(String device, boolean toDevice, String path, long totalBytes, List<String> args,
+                               Streamer streamer) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Progress progress = new Progress(device, totalBytes);
+        boolean success = false;
+        boolean interrupted = false;
+        String error = null;
+        try (Metrics.Span span = Metrics.start(toDevice ? "adb.tar_push" : "adb.tar_pull", device)) {
+            Process process;
+            try {
+                process = AdbSession.execOnDevice(device, args.toArray(new String[0]));
+            } catch (IOException e) {
+                span.fail(e);
+                throw e;
+            }
+            TaskRunner.CancelHook cancelHook = TaskRunner.onCancel(() -> AdbTransfer.stop(process));
+            try {
+                List<String> output = new ArrayList<>();
+                Thread stderr = AdbTransfer.drain(process.getErrorStream(), line -> {
+                    synchronized (output) {
+                        output.add(line);
+                    }
+                });
+                Thread stdout = toDevice ? AdbTransfer.drain(process.getInputStream(), line -> {
+                    synchronized (output) {
+                        output.add(line);
+                    }
+                }) : null;
+
+                try {
+                    streamer.stream(process, progress);
+                } catch (IOException e) {
+                    error = e.getMessage() != null ? e.getMessage() : e.toString();
+                    AdbTransfer.stop(process);
+                }
+
+                // Wait for adb to exit, an interrupt stops it and is passed on to the caller afterwards
+                while (true) {
+                    try {
+                        if (process.waitFor(1, TimeUnit.MINUTES)) {
+                            stderr.join();
+                            if (stdout != null) {
+                                stdout.join();
+                            }
+                            break;
+                        }
+                        error = "adb didn't exit";
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                    AdbTransfer.stop(process);
+                }
+
+                // exec-in and exec-out don't return the exit code of tar, so anything it printed is an error
+                if (error == null && process.exitValue() != 0) {
+                    error = "Exit code " + process.exitValue();
+                }
+                if (error == null && !output.isEmpty()) {
+                    error = output.get(output.size() - 1);
+                }
+                success = error == null && !interrupted && !TaskRunner.isCancelled();
+                span.bytes(progress.done);
+                if (!success) {
+                    span.fail(interrupted || TaskRunner.isCancelled() ? "Cancelled" : error);
+                }
+            } finally {
+                cancelHook.close();
+            }
+        }
+
+        long bytes = progress.done;
+        AdbTransfer.Record record = new AdbTransfer.Record(device, toDevice, path, bytes,
+                (System.nanoTime() - start) / 1_000_000, success, System.currentTimeMillis());
+        AdbTransfer.addRecord(record);
+        if (success) {
+            System.out.println("Tar transfer " + record);
+        } else if (interrupted || TaskRunner.isCancelled()) {
+            System.err.println("Tar transfer cancelled: " + record);
+        } else {
+            System.err.println("Error streaming " + path + ": " + error);
+        }
+
+        // The caller still cleans up, then sees the interrupt
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return success;
+    }
+
+    // Write a folder as an ustar archive, its entries named <name>/...
+    private static void archive(Path folder, String name, OutputStream output, Progress progress) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(folder)) {
+            paths = walk.sorted().toList();
+        }
+        TarOutput tar = new TarOutput(output, progress);
+        for (Path path : paths) {
+            String relative = folder.relativize(path).toString().replace('\\', '/');
+            String entryName = relative.isEmpty() ? name : name + "/" + relative;
+            long mtime = Files.getLastModifiedTime(path).to(TimeUnit.SECONDS);
+            if (Files.isDirectory(path)) {
+                tar.addFolder(entryName, mtime);
+            } else if (Files.isRegularFile(path)) {
+                try (InputStream input = Files.newInputStream(path)) {
+                    tar.addFile(entryName, Files.size(path), mtime, input);
+                } catch (EOFException e) {
+                    throw new IOException(path + " changed while it was streamed");
+                }
+            }
+        }
+        tar.finish();
+    }
+
+    // An ustar archive being written, file contents are copied from their stream as they are added
+    public static class TarOutput {
+        private final OutputStream output;
+        private final Progress progress;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private TarOutput(OutputStream output, Progress progress) {
+            this.output = output;
+            this.progress = progress;
+        }
+
+        // mtime is in seconds
+        public void addFolder(String path, long mtime) throws IOException {
+            writeHeader(output, path + "/", '5', 0, mtime);
+        }
+
+        // The stream must hold exactly size bytes
+        public void addFile(String path, long size, long mtime, InputStream data) throws IOException {
+            writeHeader(output, path, '0', size, mtime);
+            long written = 0;
+            int read;
+            while (written < size && (read = data.read(buffer, 0, (int) Math.min(buffer.length, size - written))) != -1) {
+                output.write(buffer, 0, read);
+                written += read;
+                if (progress != null) {
+                    progress.add(read);
+                }
+            }
+            if (written != size) {
+                throw new EOFException(path + " ended after " + written + " of " + size + " bytes");
+            }
+            pad(output, size);
+        }
+
+        // End of archive
+        private void finish() throws IOException {
+            output.write(new byte[2 * BLOCK]);
+        }
+    }
+
+    // Names that don't fit the 100 bytes of the header are split into prefix and name,
+    // or written as a GNU long name entry first
+    private static void writeHeader(OutputStream output, String entryName, char type, long size, long mtime) throws IOException {
+        byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+        byte[] prefix = new byte[0];
+        if (name.length > 100) {
+            int split = -1;
+            for (int i = 0; i < name.length; i++) {
+                if (name[i] == '/' && i <= 155 && name.length - i - 1 <= 100 && name.length - i - 1 > 0) {
+                    split = i;
+                    break;
+                }
+            }
+            if (split >= 0) {
+                prefix = Arrays.copyOfRange(name, 0, split);
+                name = Arrays.copyOfRange(name, split + 1, name.length);
+            } else {
+                byte[] longName = Arrays.copyOf(name, name.length + 1);
+                output.write(header("././@LongLink".getBytes(StandardCharsets.US_ASCII), new byte[0], 'L', longName.length, 0));
+                output.write(longName);
+                pad(output, longName.length);
+                name = Arrays.copyOf(name, 100);
+            }
+        }
+        output.write(header(name, prefix, type, size, mtime));
+    }
+
+    private static byte[] header(byte[] name, byte[] prefix, char type, long size, long mtime) {
+        byte[] header = new byte[BLOCK];
+        System.arraycopy(name, 0, header, 0, name.length);
+        putOctal(header, 100, 8, type == '5' ? 0755 : 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, mtime);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        System.arraycopy(prefix, 0, header, 345, prefix.length);
+
+        // The checksum is computed with its own field filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        putOctal(header, 148, 7, checksum(header));
+        header[155] = ' ';
+        return header;
+    }
+
+    // Zero padded octal, ending with NUL
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        if (octal.length() > length - 1) {
+            throw new IllegalArgumentException("Value too large for a tar header: " + value);
+        }
+        byte[] digits = ("0".repeat(length - 1 - octal.length()) + octal).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(digits, 0, header, offset, digits.length);
+        header[offset + length - 1] = 0;
+    }
+
+    private static long checksum(byte[] header) {
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        return sum;
+    }
+
+    private static void pad(OutputStream output, long size) throws IOException {
+        int remainder = (int) (size % BLOCK);
+        if (remainder != 0) {
+            output.write(new byte[BLOCK - remainder]);
+        }
+    }
+
+    // Read an archive of the folder name into destination. Links and special files are skipped,
+    // and entries outside of the folder are refused.
+    private static void extract(InputStream input, String name, Path destination, Progress progress) throws IOException {
+        Path root = destination.toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        readEntries(input, (entryName, data, size, mtime) -> {
+            Path target = resolve(root, name, entryName);
+            if (data == null) {
+                Files.createDirectories(target);
+                return;
+            }
+            Files.createDirectories(target.getParent());
+            try (OutputStream output = Files.newOutputStream(target)) {
+                data.transferTo(output);
+            }
+            Files.setLastModifiedTime(target, FileTime.from(mtime, TimeUnit.SECONDS));
+        }, progress);
+    }
+
+    // Pass the folders and regular files of an archive to the visitor until its end, other entries are skipped
+    private static void readEntries(InputStream input, EntryVisitor visitor, Progress progress) throws IOException {
+        byte[] header = new byte[BLOCK];
+        String longName = null;
+        while (true) {
+            readFully(input, header, BLOCK);
+            if (isZero(header)) {
+                return;
+            }
+            long expected = parseOctal(header, 148, 8);
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            if (checksum(header) != expected) {
+                throw new IOException("Corrupt tar header");
+            }
+
+            long size = parseOctal(header, 124, 12);
+            char type = (char) header[156];
+            String entryName;
+            if (longName != null) {
+                entryName = longName;
+                longName = null;
+            } else {
+                String prefix = readString(header, 345, 155);
+                entryName = (prefix.isEmpty() ? "" : prefix + "/") + readString(header, 0, 100);
+            }
+
+            switch (type) {
+                case 'L', 'x' -> {
+                    // GNU long name, or pax extended header holding the path of the next entry
+                    byte[] data = readData(input, size);
+                    longName = type == 'L' ? readString(data, 0, data.length) : paxPath(data);
+                    continue;
+                }
+                case 'g' -> {
+                    readData(input, size);
+                    continue;
+                }
+                default -> {
+                }
+            }
+
+            long mtime = parseOctal(header, 136, 12);
+            if (type == '5') {
+                visitor.visit(entryName, null, 0, mtime);
+                skip(input, size);
+            } else if (type == '0' || type == '\0' || type == '7') {
+                EntryStream data = new EntryStream(input, entryName, size, progress);
+                visitor.visit(entryName, data, size, mtime);
+                data.skipRest();
+                skip(input, (BLOCK - size % BLOCK) % BLOCK);
+            } else {
+                System.err.println("Skipping " + entryName + ", unsupported tar entry type " + type);
+                skip(input, size + (BLOCK - size % BLOCK) % BLOCK);
+            }
+        }
+    }
+
+    // The content of one file of the archive
+    private static class EntryStream extends InputStream {
+        private final InputStream input;
+        private final String name;
+        private final Progress progress;
+        private long remaining;
+
+        private EntryStream(InputStream input, String name, long size, Progress progress) {
+            this.input = input;
+            this.name = name;
+            this.remaining = size;
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = input.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read == -1) {
+                throw new EOFException("Archive ended in " + name);
+            }
+            remaining -= read;
+            if (progress != null) {
+                progress.add(read);
+            }
+            return read;
+        }
+
+        // Entries are one after the other, so the next one starts after what the visitor didn't read
+        private void skipRest() throws IOException {
+            transferTo(OutputStream.nullOutputStream());
+        }
+
+        @Override
+        public void close() {
+            // The archive stays open for the next entry
+        }
+    }
+
+    // Entries are <name>/..., the folder itself becomes root
+    private static Path resolve(Path root, String name, String entryName) throws IOException {
+        String path = entryName.startsWith("./") ? entryName.substring(2) : entryName;
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        if (!path.equals(name) && !path.startsWith(name + "/")) {
+            throw new IOException("Unexpected tar entry " + entryName);
+        }
+        Path target = root.resolve(path.substring(name.length()).replaceFirst("^/", "")).normalize();
+        if (!target.startsWith(root)) {
+            throw new IOException("Unexpected tar entry " + entryName);
+        }
+        return target;
+    }
+
+    // Records are "<length> <key>=<value>\n"
+    private static String paxPath(byte[] data) {
+        String text = new String(data, StandardCharsets.UTF_8);
+        for (String record : text.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space >= 0 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 6);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readData(InputStream input, long size) throws IOException {
+        if (size > Integer.MAX_VALUE - BLOCK) {
+            throw new IOException("Tar header entry too large");
+        }
+        byte[] data = new byte[(int) size];
+        readFully(input, data, data.length);
+        skip(input, (BLOCK - size % BLOCK) % BLOCK);
+        return data;
+    }
+
+    private static void readFully(InputStream input, byte[] data, int length) throws IOException {
+        if (input.readNBytes(data, 0, length) != length) {
+            throw new EOFException("Archive ended early");
+        }
+    }
+
+    private static void skip(InputStream input, long bytes) throws IOException {
+        input.skipNBytes(bytes);
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // NUL or space terminated
+    private static long parseOctal(byte[] header, int offset, int length) throws IOException {
+        long value = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end && header[i] == ' ') {
+            i++;
+        }
+        for (; i < end && header[i] != 0 && header[i] != ' '; i++) {
+            if (header[i] < '0' || header[i] > '7') {
+                throw new IOException("Corrupt tar header");
+            }
+            value = value * 8 + (header[i] - '0');
+        }
+        return value;
+    }
+
+    private static String readString(byte[] data, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, offset, end - offset, StandardCharsets.UTF_8);
+    }
+}
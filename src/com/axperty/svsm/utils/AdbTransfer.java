@@ -0,0 +1,335 @@
+package com.axperty.svsm.utils;
+
+import com.axperty.svsm.properties.SetLanguage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Runs "adb push" and "adb pull" and follows their progress.
+// stdout and stderr are drained on their own threads so adb never blocks on a full pipe.
+// adb only prints "[ 42%]" lines to a terminal, so the bytes already transferred are also measured
+// (in the local folder for a pull, on the device for a push) to report speed and time left.
+// Every transfer is timed and kept in a short history, so slow USB links show up.
+// Whole folders can be streamed as tar instead, see AdbTar.
+public class AdbTransfer {
+    private static final int HISTORY_SIZE = 50;
+    private static final long SAMPLE_MILLIS = 250;
+
+    // "[ 42%] /sdcard/..." while transferring, in a terminal
+    private static final Pattern PERCENT = Pattern.compile("\\[\\s*(\\d+)%\\]");
+    // "...: 2 files pulled, 0 skipped. 12.3 MB/s (123456 bytes in 0.010s)" once done
+    private static final Pattern SUMMARY = Pattern.compile("\\((\\d+) bytes in ([\\d.]+)s\\)");
+
+    private static final Deque<Record> history = new ArrayDeque<>();
+
+    // Timing of a finished transfer
+    public record Record(String device, boolean toDevice, String path, long bytes, long millis, boolean success,
+                         long finished) {
+        public long getBytesPerSecond() {
+            return millis > 0 ? bytes * 1000 / millis : 0;
+        }
+
+        @Override
+        public String toString() {
+            return (toDevice ? "push to " : "pull from ") + device + " " + path + ": "
+                    + SaveSync.formatSize(bytes) + " in " + millis + " ms ("
+                    + SaveSync.formatSize(getBytesPerSecond()) + "/s)" + (success ? "" : " FAILED");
+        }
+    }
+
+    // Copy local files or folders into a device folder.
+    // totalBytes is the size being sent (-1 if unknown), measured on the device while it is copied if
+    // remoteFolder (the folder being created) is given.
+    public static boolean push(String device, List<String> sources, String destination, long totalBytes, String remoteFolder)
+            throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>(List.of("push"));
+        args.addAll(sources);
+        args.add(destination);
+        return run(device, true, args, destination, totalBytes, remoteFolder == null ? null : () -> remoteSize(device, List.of(remoteFolder)));
+    }
+
+    // Copy device files or folders into a local folder, measuring localFolder (if given) while it is copied.
+    // totalBytes is the size being pulled, -1 to ask the device first.
+    public static boolean pull(String device, List<String> sources, Path destination, long totalBytes, Path localFolder)
+            throws IOException, InterruptedException {
+        if (totalBytes < 0) {
+            try {
+                totalBytes = remoteSize(device, sources);
+            } catch (IOException e) {
+                System.err.println("Unable to measure " + sources + " before pulling: " + e.getMessage());
+            }
+        }
+        List<String> args = new ArrayList<>(List.of("pull"));
+        args.addAll(sources);
+        args.add(destination.toString());
+        return run(device, false, args, sources.get(0), totalBytes, localFolder == null ? null : () -> localSize(localFolder));
+    }
+
+    // Copy a whole device folder into a local folder that doesn't exist yet, streamed as tar if it is enabled.
+    // A failed stream is retried with pull, unless it was cancelled.
+    public static boolean pullFolder(String device, String remoteFolder, Path destination, long totalBytes)
+            throws IOException, InterruptedException {
+        if (AdbTar.isEnabled() && AdbTar.isSupported(device)) {
+            if (AdbTar.pull(device, remoteFolder, destination, totalBytes)) {
+                return true;
+            }
+            if (TaskRunner.isCancelled() || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            System.err.println("Pulling " + remoteFolder + " without tar.");
+            CopyEngine.deleteRecursively(destination);
+        }
+        return pull(device, List.of(remoteFolder), destination, totalBytes, destination);
+    }
+
+    // Copy a local folder into a device folder that doesn't exist yet, streamed as tar if it is enabled
+    public static boolean pushFolder(String device, Path localFolder, String remoteFolder, long totalBytes)
+            throws IOException, InterruptedException {
+        if (AdbTar.isEnabled() && AdbTar.isSupported(device)) {
+            if (AdbTar.push(device, localFolder, remoteFolder, totalBytes)) {
+                return true;
+            }
+            if (TaskRunner.isCancelled() || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            System.err.println("Pushing " + remoteFolder + " without tar.");
+            if (AdbSession.get(device).run("rm -rf " + AdbSession.quote(remoteFolder)).getExitCode() != 0) {
+                return false;
+            }
+        }
+        return push(device, List.of(localFolder.toString()), remoteFolder, totalBytes, remoteFolder);
+    }
+
+    // Finished transfers, newest first
+    public static List<Record> getHistory() {
+        synchronized (history) {
+            return new ArrayList<>(history);
+        }
+    }
+
+    static void addRecord(Record record) {
+        synchronized (history) {
+            history.addFirst(record);
+            if (history.size() > HISTORY_SIZE) {
+                history.removeLast();
+            }
+        }
+    }
+
+    private interface SizeProbe {
+        long measure() throws IOException;
+    }
+
+    private static boolean run(String device, boolean toDevice, List<String> args, String path, long totalBytes, SizeProbe probe)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Metrics.Span span = Metrics.start(toDevice ? "adb.push" : "adb.pull", device);
+        Process process;
+        try {
+            process = AdbSession.execOnDevice(device, args.toArray(new String[0]));
+        } catch (IOException e) {
+            span.fail(e);
+            span.close();
+            throw e;
+        }
+
+        TaskRunner.CancelHook cancelHook = TaskRunner.onCancel(() -> stop(process));
+        try {
+            // Bytes from adb's last percentage, -1 until it printed one
+            AtomicLong percentBytes = new AtomicLong(-1);
+            List<String> errors = new ArrayList<>();
+            long[] summary = {-1, -1};
+            Consumer<String> onLine = line -> {
+                Matcher percent = PERCENT.matcher(line);
+                if (percent.find() && totalBytes > 0) {
+                    percentBytes.set(totalBytes * Integer.parseInt(percent.group(1)) / 100);
+                }
+                Matcher finished = SUMMARY.matcher(line);
+                if (finished.find()) {
+                    summary[0] = Long.parseLong(finished.group(1));
+                    summary[1] = (long) (Double.parseDouble(finished.group(2)) * 1000);
+                }
+            };
+            Thread stdout = drain(process.getInputStream(), onLine);
+            Thread stderr = drain(process.getErrorStream(), line -> {
+                synchronized (errors) {
+                    errors.add(line);
+                }
+                onLine.accept(line);
+            });
+
+            // Report progress until adb exits, the measured folder is new so all of its content was transferred
+            long done = 0;
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (process.waitFor(SAMPLE_MILLIS, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    // The task was cancelled
+                    interrupted = true;
+                    break;
+                }
+                done = Math.max(done, percentBytes.get());
+                if (probe != null) {
+                    try {
+                        done = Math.max(done, probe.measure());
+                    } catch (IOException e) {
+                        // Nothing written yet
+                    }
+                }
+                boolean measured = probe != null || percentBytes.get() >= 0;
+                reportProgress(device, measured ? done : -1, totalBytes, System.nanoTime() - start);
+            }
+
+            // Wait for the output to be read, an interrupt stops adb and is passed on to the caller afterwards
+            while (process.isAlive() || stdout.isAlive() || stderr.isAlive()) {
+                if (interrupted) {
+                    stop(process);
+                }
+                try {
+                    process.waitFor();
+                    stdout.join();
+                    stderr.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            int exitCode = process.exitValue();
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            boolean success = exitCode == 0 && !interrupted && !TaskRunner.isCancelled();
+            long bytes = (summary[0] >= 0) ? summary[0] : success ? Math.max(totalBytes, done) : done;
+            Record record = new Record(device, toDevice, path, bytes,
+                    summary[1] > 0 ? summary[1] : millis, success, System.currentTimeMillis());
+            addRecord(record);
+            span.bytes(bytes);
+            if (!success) {
+                span.fail(interrupted || TaskRunner.isCancelled() ? "Cancelled" : "Exit code " + exitCode);
+            }
+            span.close();
+
+            if (success) {
+                System.out.println("Transfer " + record);
+            } else if (interrupted || TaskRunner.isCancelled()) {
+                System.err.println("Transfer cancelled: " + record);
+            } else {
+                System.err.println("Error transferring " + path + ". Exit code: " + exitCode
+                        + (errors.isEmpty() ? "" : " (" + errors.get(errors.size() - 1) + ")"));
+            }
+
+            // The caller still cleans up, then sees the interrupt
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return success;
+        } finally {
+            cancelHook.close();
+        }
+    }
+
+    // Children (e.g. of an adb wrapper script) hold the pipes too, so they are stopped first
+    static void stop(Process process) {
+        process.descendants().forEach(ProcessHandle::destroy);
+        process.destroy();
+    }
+
+    // Read a stream line by line on its own thread. adb rewrites its progress line with '\r', so that ends a line too.
+    static Thread drain(InputStream stream, Consumer<String> onLine) {
+        return Thread.ofVirtual().start(() -> {
+            try (Reader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                StringBuilder line = new StringBuilder();
+                int c;
+                while ((c = reader.read()) != -1) {
+                    if (c == '\n' || c == '\r') {
+                        if (!line.isEmpty()) {
+                            onLine.accept(line.toString());
+                            line.setLength(0);
+                        }
+                    } else {
+                        line.append((char) c);
+                    }
+                }
+                if (!line.isEmpty()) {
+                    onLine.accept(line.toString());
+                }
+            } catch (IOException e) {
+                // The process was destroyed
+            }
+        });
+    }
+
+    // "1.2 MB / 4.0 MB, 3.1 MB/s, 2 s left", shown in the status bar and the transfer dialog.
+    // done is -1 if the progress can't be followed, then only the size and elapsed time are shown.
+    static void reportProgress(String device, long done, long total, long elapsedNanos) {
+        StringBuilder text = new StringBuilder();
+        if (DeviceRegistry.getDevices().size() > 1) {
+            text.append(DeviceRegistry.getLabel(device)).append(": ");
+        }
+        if (done < 0) {
+            text.append(total > 0 ? SaveSync.formatSize(total) + ", " : "").append(elapsedNanos / 1_000_000_000).append(" s");
+            TaskRunner.progress(text.toString(), -1);
+            return;
+        }
+
+        long bytesPerSecond = elapsedNanos > 0 ? (long) (done / (elapsedNanos / 1e9)) : 0;
+        text.append(SaveSync.formatSize(done));
+        if (total > 0) {
+            text.append(" / ").append(SaveSync.formatSize(total));
+        }
+        text.append(", ").append(SaveSync.formatSize(bytesPerSecond)).append("/s");
+        if (total > 0 && bytesPerSecond > 0 && done < total) {
+            text.append(", ").append((total - done) / bytesPerSecond + 1).append(" s ")
+                    .append(SetLanguage.getBundle().getString("transfer.remaining"));
+        }
+        TaskRunner.progress(text.toString(), total > 0 ? Math.min(1.0, (double) done / total) : -1);
+    }
+
+    private static long localSize(Path folder) throws IOException {
+        if (!Files.exists(folder)) {
+            throw new IOException("Not created yet: " + folder);
+        }
+        try (Stream<Path> walk = Files.walk(folder)) {
+            return walk.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    // Size on the device in bytes (du counts in KB)
+    static long remoteSize(String device, List<String> paths) throws IOException {
+        StringBuilder script = new StringBuilder("du -sk");
+        for (String path : paths) {
+            script.append(' ').append(AdbSession.quote(path));
+        }
+        AdbSession.Result result = AdbSession.get(device).run(script.toString());
+        long kilobytes = 0;
+        for (String line : result.getLines()) {
+            String[] fields = line.trim().split("\\s+", 2);
+            try {
+                kilobytes += Long.parseLong(fields[0]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Unexpected du output: " + line);
+            }
+        }
+        if (result.getExitCode() != 0) {
+            throw new IOException("du failed with exit code " + result.getExitCode());
+        }
+        return kilobytes * 1024;
+    }
+}
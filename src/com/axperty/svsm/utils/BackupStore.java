@@ -0,0 +1,512 @@
+package com.axperty.svsm.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Content-addressed backup repository.
+// Files are split into chunks that are stored once, compressed, under their SHA-256 hash,
+// and each backup is a small snapshot manifest listing the chunks of every file.
+// Unchanged files are detected by size and modification time and reuse the chunks of the previous snapshot.
+// "latest.index" in the snapshots folder names the newest snapshot of each save folder, so a backup only reads
+// the manifests it builds on. Once there are a tenth more snapshots than -Dsvsm.keepSnapshots (100 by default)
+// the oldest are pruned, the newest snapshot of every save folder is always kept.
+public class BackupStore {
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final String MANIFEST_HEADER = "# svsm snapshot v1";
+    private static final String MANIFEST_EXTENSION = ".manifest";
+    private static final String INDEX_HEADER = "# svsm latest v1";
+    private static final String INDEX_FILE = "latest.index";
+    private static final int KEEP_SNAPSHOTS = Integer.getInteger("svsm.keepSnapshots", 100);
+
+    // Snapshots and restores share the read lock, pruning takes the write lock so it never deletes the chunks
+    // of a snapshot whose manifest isn't written yet. Snapshots running at the same time update the index
+    // one at a time.
+    private static final ReadWriteLock chunksLock = new ReentrantReadWriteLock();
+    private static final Object lock = new Object();
+
+    private final Path objectsDirectory;
+    private final Path snapshotsDirectory;
+
+    public BackupStore(Path root) {
+        this.objectsDirectory = root.resolve("objects");
+        this.snapshotsDirectory = root.resolve("snapshots");
+    }
+
+    // Backup folder in the same directory as the jar
+    public static BackupStore getDefault() {
+        return new BackupStore(Paths.get(System.getProperty("user.dir"), "SteamSavesBackup"));
+    }
+
+    // A file inside a snapshot, path is relative to the saves folder ("Name_ID/Name_ID")
+    private static class FileEntry {
+        final String path;
+        final long size;
+        final long lastModified;
+        final List<String> chunks;
+
+        FileEntry(String path, long size, long lastModified, List<String> chunks) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.chunks = chunks;
+        }
+    }
+
+    public static class Snapshot {
+        private final String id;
+        private final long created;
+        private final List<FileEntry> files;
+
+        private Snapshot(String id, long created, List<FileEntry> files) {
+            this.id = id;
+            this.created = created;
+            this.files = files;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        // Save folders included in this snapshot
+        public List<String> getFolders() {
+            Set<String> folders = new LinkedHashSet<>();
+            for (FileEntry file : files) {
+                folders.add(file.path.substring(0, file.path.indexOf('/')));
+            }
+            return new ArrayList<>(folders);
+        }
+
+        public long getTotalBytes() {
+            long total = 0;
+            for (FileEntry file : files) {
+                total += file.size;
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return new SimpleDateFormat("MM/dd/yyyy HH:mm:ss").format(new Date(created))
+                    + " (" + getFolders().size() + " saves, " + SaveSync.formatSize(getTotalBytes()) + ")";
+        }
+    }
+
+    // Back up every save folder in the saves directory
+    public Snapshot createSnapshot(Path savesDirectory) throws IOException {
+        return createSnapshot(savesDirectory, (String) null);
+    }
+
+    // Back up a single save folder, or every one if folderName is null
+    public Snapshot createSnapshot(Path savesDirectory, String folderName) throws IOException {
+        try (Metrics.Span span = Metrics.start("backup.snapshot", folderName)) {
+            try {
+                Snapshot snapshot;
+                chunksLock.readLock().lock();
+                try {
+                    snapshot = createSnapshot(savesDirectory, folderName, span);
+                } finally {
+                    chunksLock.readLock().unlock();
+                }
+                span.bytes(snapshot.getTotalBytes());
+                applyRetention();
+                return snapshot;
+            } catch (IOException e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+
+    private Snapshot createSnapshot(Path savesDirectory, String folderName, Metrics.Span span) throws IOException {
+        // Staging and previous copies of a save being replaced start with a dot and aren't backed up
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(folderName == null ? savesDirectory : savesDirectory.resolve(folderName))) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(file -> savesDirectory.relativize(file).getNameCount() > 1)
+                    .filter(file -> !savesDirectory.relativize(file).getName(0).toString().startsWith("."))
+                    .toList();
+        }
+
+        // Files that didn't change since they were last backed up reuse their chunks without being read.
+        // Snapshots of a single save don't hold the others, so the newest snapshot of each folder is read.
+        Set<String> folders = new HashSet<>();
+        for (Path file : files) {
+            folders.add(savesDirectory.relativize(file).getName(0).toString());
+        }
+        Map<String, FileEntry> previous = new HashMap<>();
+        Map<String, String> latest = readIndex();
+        Set<String> ids = new HashSet<>();
+        for (String folder : folders) {
+            if (latest.containsKey(folder)) {
+                ids.add(latest.get(folder));
+            }
+        }
+        for (String id : ids) {
+            Snapshot snapshot = readSnapshot(id);
+            if (snapshot == null) {
+                continue;
+            }
+            for (FileEntry file : snapshot.files) {
+                String folder = file.path.substring(0, file.path.indexOf('/'));
+                if (id.equals(latest.get(folder))) {
+                    previous.put(file.path, file);
+                }
+            }
+        }
+
+        Files.createDirectories(objectsDirectory);
+        List<FileEntry> entries = Collections.synchronizedList(new ArrayList<>());
+        List<IOException> errors = Collections.synchronizedList(new ArrayList<>());
+        files.parallelStream().forEach(file -> {
+            String path = savesDirectory.relativize(file).toString().replace('\\', '/');
+            try {
+                long size = Files.size(file);
+                long lastModified = Files.getLastModifiedTime(file).toMillis();
+                FileEntry old = previous.get(path);
+                if (old != null && old.size == size && old.lastModified == lastModified) {
+                    entries.add(old);
+                } else {
+                    entries.add(new FileEntry(path, size, lastModified, storeChunks(file)));
+                }
+            } catch (IOException e) {
+                System.err.println("Error backing up " + path + ": " + e.getMessage());
+                span.fail(e);
+                errors.add(e);
+            }
+        });
+        if (!errors.isEmpty() && entries.isEmpty()) {
+            throw errors.get(0);
+        }
+
+        // The random suffix tells apart snapshots taken in the same millisecond
+        entries.sort(Comparator.comparing(entry -> entry.path));
+        long created = System.currentTimeMillis();
+        String id = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(created))
+                + "-" + HexFormat.of().toHexDigits((short) ThreadLocalRandom.current().nextInt());
+        Snapshot snapshot = new Snapshot(id, created, entries);
+        writeManifest(snapshot);
+        synchronized (lock) {
+            Map<String, String> index = readIndex();
+            for (String folder : snapshot.getFolders()) {
+                index.put(folder, snapshot.id);
+            }
+            writeIndex(index);
+        }
+        return snapshot;
+    }
+
+    // Snapshots from newest to oldest
+    public List<Snapshot> listSnapshots() throws IOException {
+        List<Snapshot> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(snapshotsDirectory)) {
+            return snapshots;
+        }
+        try (Stream<Path> list = Files.list(snapshotsDirectory)) {
+            for (Path manifest : (Iterable<Path>) list.filter(p -> p.toString().endsWith(MANIFEST_EXTENSION))::iterator) {
+                try {
+                    snapshots.add(readManifest(manifest));
+                } catch (IOException e) {
+                    System.err.println("Skipping snapshot " + manifest.getFileName() + ": " + e.getMessage());
+                }
+            }
+        }
+        snapshots.sort(Comparator.comparingLong(Snapshot::getCreated).reversed());
+        return snapshots;
+    }
+
+    // Restore one save folder of a snapshot into the destination folder, replacing it
+    public void restore(Snapshot snapshot, String folderName, Path destination) throws IOException {
+        chunksLock.readLock().lock();
+        try {
+            restoreFolder(snapshot, folderName, destination);
+        } finally {
+            chunksLock.readLock().unlock();
+        }
+    }
+
+    private void restoreFolder(Snapshot snapshot, String folderName, Path destination) throws IOException {
+        String prefix = folderName + "/";
+        Path staging = CopyEngine.stagingPath(destination);
+        CopyEngine.deleteRecursively(staging);
+        Files.createDirectories(staging);
+
+        for (FileEntry file : snapshot.files) {
+            if (!file.path.startsWith(prefix)) {
+                continue;
+            }
+            Path target = staging.resolve(file.path.substring(prefix.length()));
+            Files.createDirectories(target.getParent());
+            try (OutputStream output = Files.newOutputStream(target)) {
+                for (String chunk : file.chunks) {
+                    try (InputStream input = new GZIPInputStream(Files.newInputStream(objectPath(chunk)))) {
+                        input.transferTo(output);
+                    }
+                }
+            }
+            Files.setLastModifiedTime(target, FileTime.fromMillis(file.lastModified));
+        }
+
+        // Only replace the existing save once every file was restored
+        CopyEngine.publish(staging, destination);
+    }
+
+    // Delete all but the newest snapshots and the chunks no longer used by any of them.
+    // The newest snapshot of each save folder is kept too, so no save loses its last backup.
+    // Returns the number of chunks removed.
+    public int prune(int keepLatest) throws IOException {
+        chunksLock.writeLock().lock();
+        try {
+            return pruneSnapshots(keepLatest);
+        } finally {
+            chunksLock.writeLock().unlock();
+        }
+    }
+
+    private int pruneSnapshots(int keepLatest) throws IOException {
+        List<Snapshot> snapshots = listSnapshots();
+        Map<String, String> latest = new HashMap<>();
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < snapshots.size(); i++) {
+            Snapshot snapshot = snapshots.get(i);
+            boolean newestOfFolder = false;
+            for (String folder : snapshot.getFolders()) {
+                newestOfFolder |= latest.putIfAbsent(folder, snapshot.id) == null;
+            }
+            if (i < keepLatest || newestOfFolder) {
+                for (FileEntry file : snapshot.files) {
+                    used.addAll(file.chunks);
+                }
+            } else {
+                Files.deleteIfExists(snapshotsDirectory.resolve(snapshot.id + MANIFEST_EXTENSION));
+            }
+        }
+        writeIndex(latest);
+
+        int removed = 0;
+        if (!Files.isDirectory(objectsDirectory)) {
+            return removed;
+        }
+        try (Stream<Path> walk = Files.walk(objectsDirectory)) {
+            // Chunks still being written by another process are left alone
+            for (Path object : (Iterable<Path>) walk.filter(Files::isRegularFile)::iterator) {
+                String fileName = object.getFileName().toString();
+                String hash = fileName.replace(".gz", "");
+                if (!fileName.endsWith(".tmp") && !used.contains(hash)) {
+                    Files.delete(object);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    // Space used on disk by the backups. Chunks are never changed once written,
+    // so only the chunk folders that gained or lost chunks since the last call are walked.
+    public DiskUsage.Usage getDiskUsage() throws IOException {
+        List<Path> folders = new ArrayList<>();
+        if (Files.isDirectory(objectsDirectory)) {
+            try (Stream<Path> list = Files.list(objectsDirectory)) {
+                list.filter(Files::isDirectory).forEach(folders::add);
+            }
+        }
+        if (Files.isDirectory(snapshotsDirectory)) {
+            folders.add(snapshotsDirectory);
+        }
+        return DiskUsage.total(folders);
+    }
+
+    // Prune once there are a tenth more snapshots than kept, so the chunks aren't walked after every backup
+    private void applyRetention() throws IOException {
+        if (KEEP_SNAPSHOTS <= 0) {
+            return;
+        }
+        long count;
+        try (Stream<Path> list = Files.list(snapshotsDirectory)) {
+            count = list.filter(p -> p.toString().endsWith(MANIFEST_EXTENSION)).count();
+        }
+        if (count > KEEP_SNAPSHOTS + Math.max(1, KEEP_SNAPSHOTS / 10)) {
+            int removed = prune(KEEP_SNAPSHOTS);
+            System.out.println("Pruned backups to the newest " + KEEP_SNAPSHOTS + " snapshots, removed " + removed + " unused chunks.");
+        }
+    }
+
+    // Newest snapshot id of each save folder, rebuilt from the manifests if the index is missing or unreadable
+    private Map<String, String> readIndex() throws IOException {
+        synchronized (lock) {
+            Path file = snapshotsDirectory.resolve(INDEX_FILE);
+            if (Files.isRegularFile(file)) {
+                try {
+                    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                    if (!lines.isEmpty() && lines.get(0).equals(INDEX_HEADER)) {
+                        Map<String, String> index = new HashMap<>();
+                        for (String line : lines.subList(1, lines.size())) {
+                            String[] fields = line.split("\t");
+                            if (fields.length == 2) {
+                                index.put(fields[0], fields[1]);
+                            }
+                        }
+                        return index;
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error reading the backup index: " + e.getMessage());
+                }
+            }
+
+            Map<String, String> index = new HashMap<>();
+            for (Snapshot snapshot : listSnapshots()) {
+                for (String folder : snapshot.getFolders()) {
+                    index.putIfAbsent(folder, snapshot.id);
+                }
+            }
+            if (!index.isEmpty()) {
+                writeIndex(index);
+            }
+            return index;
+        }
+    }
+
+    private void writeIndex(Map<String, String> index) throws IOException {
+        Files.createDirectories(snapshotsDirectory);
+        Path temp = snapshotsDirectory.resolve(INDEX_FILE + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(INDEX_HEADER + "\n");
+            for (Map.Entry<String, String> entry : index.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+            }
+        }
+        Files.move(temp, snapshotsDirectory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // A snapshot by id, or null if its manifest is missing or unreadable
+    private Snapshot readSnapshot(String id) {
+        Path manifest = snapshotsDirectory.resolve(id + MANIFEST_EXTENSION);
+        try {
+            return Files.isRegularFile(manifest) ? readManifest(manifest) : null;
+        } catch (IOException e) {
+            System.err.println("Skipping snapshot " + manifest.getFileName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Split a file into chunks and store the ones that aren't in the repository yet
+    private List<String> storeChunks(Path file) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        try (InputStream input = Files.newInputStream(file)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int length;
+            while ((length = input.readNBytes(buffer, 0, CHUNK_SIZE)) > 0) {
+                String hash = sha256(buffer, length);
+                Path object = objectPath(hash);
+                if (Files.notExists(object)) {
+                    writeObject(object, buffer, length);
+                }
+                chunks.add(hash);
+            }
+        }
+        return chunks;
+    }
+
+    // Write to a temporary file first so an interrupted backup never leaves a truncated chunk
+    private void writeObject(Path object, byte[] data, int length) throws IOException {
+        Files.createDirectories(object.getParent());
+        Path temp = Files.createTempFile(object.getParent(), "chunk", ".tmp");
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(temp))) {
+            output.write(data, 0, length);
+        }
+        try {
+            Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, object, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path objectPath(String hash) {
+        return objectsDirectory.resolve(hash.substring(0, 2)).resolve(hash + ".gz");
+    }
+
+    private void writeManifest(Snapshot snapshot) throws IOException {
+        Files.createDirectories(snapshotsDirectory);
+        Path temp = Files.createTempFile(snapshotsDirectory, snapshot.id, ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(MANIFEST_HEADER + "\n");
+            writer.write("created\t" + snapshot.created + "\n");
+            for (FileEntry file : snapshot.files) {
+                writer.write("file\t" + file.path + "\t" + file.size + "\t" + file.lastModified + "\t"
+                        + String.join(",", file.chunks) + "\n");
+            }
+        }
+        // Never replaces another snapshot's manifest
+        Files.move(temp, snapshotsDirectory.resolve(snapshot.id + MANIFEST_EXTENSION));
+    }
+
+    private Snapshot readManifest(Path manifest) throws IOException {
+        String fileName = manifest.getFileName().toString();
+        String id = fileName.substring(0, fileName.length() - MANIFEST_EXTENSION.length());
+        long created = 0;
+        List<FileEntry> files = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            if (!MANIFEST_HEADER.equals(reader.readLine())) {
+                throw new IOException("Not a snapshot manifest");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields[0].equals("created") && fields.length == 2) {
+                    created = Long.parseLong(fields[1]);
+                } else if (fields[0].equals("file") && fields.length >= 4 && fields[1].indexOf('/') > 0) {
+                    List<String> chunks = (fields.length == 5 && !fields[4].isEmpty())
+                            ? List.of(fields[4].split(","))
+                            : List.of();
+                    files.add(new FileEntry(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]), chunks));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt snapshot manifest: " + e.getMessage());
+        }
+        return new Snapshot(id, created, files);
+    }
+
+    private static String sha256(byte[] data, int length) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data, 0, length);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.axperty.svsm.utils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Recursive directory copy used for backups and restores.
+// Files are copied in parallel on a fork-join pool with FileChannel.transferTo, into a staging folder
+// that only replaces the destination once every file was copied.
+public class CopyEngine {
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // Outcome of a copy, failures are reported per file instead of stopping the copy
+    public static class Report {
+        private final AtomicInteger filesCopied = new AtomicInteger();
+        private final AtomicLong bytesCopied = new AtomicLong();
+        private final Map<Path, IOException> failures = new ConcurrentHashMap<>();
+
+        public int getFilesCopied() {
+            return filesCopied.get();
+        }
+
+        public long getBytesCopied() {
+            return bytesCopied.get();
+        }
+
+        public Map<Path, IOException> getFailures() {
+            return failures;
+        }
+
+        public boolean isSuccess() {
+            return failures.isEmpty();
+        }
+
+        public String getSummary() {
+            String summary = filesCopied.get() + " files copied (" + SaveSync.formatSize(bytesCopied.get()) + ")";
+            return failures.isEmpty() ? summary : summary + ", " + failures.size() + " failed";
+        }
+    }
+
+    // Copy a directory, replacing the destination only if every file was copied
+    public static Report copyDirectory(Path source, Path destination) {
+        return pool.invoke(ForkJoinTask.adapt(() -> copyAndPublish(source, destination)));
+    }
+
+    private static Report copyAndPublish(Path source, Path destination) {
+        try (Metrics.Span span = Metrics.start("copy", source.getFileName().toString())) {
+            Report report = copyAndPublish(source, destination, stagingPath(destination));
+            span.bytes(report.getBytesCopied());
+            if (!report.isSuccess()) {
+                span.fail(report.failures.values().iterator().next());
+            }
+            return report;
+        }
+    }
+
+    private static Report copyAndPublish(Path source, Path destination, Path staging) {
+        Report report = new Report();
+        try {
+            deleteRecursively(staging);
+            new CopyTask(source, staging, report).compute();
+        } catch (IOException e) {
+            report.failures.put(source, e);
+        }
+
+        // Publish only complete copies, a partial one is thrown away
+        try {
+            if (report.isSuccess()) {
+                publish(staging, destination);
+            } else {
+                deleteRecursively(staging);
+            }
+        } catch (IOException e) {
+            report.failures.put(destination, e);
+        }
+        return report;
+    }
+
+    // A folder next to the destination, so the final rename stays on the same file system
+    public static Path stagingPath(Path destination) {
+        return destination.resolveSibling("." + destination.getFileName() + ".staging");
+    }
+
+    // The existing destination while it is being replaced
+    private static Path previousPath(Path destination) {
+        return destination.resolveSibling("." + destination.getFileName() + ".previous");
+    }
+
+    // Move a complete staging folder into place, replacing the destination if it exists.
+    // The destination is only deleted once the new copy is in place.
+    public static void publish(Path staging, Path destination) throws IOException {
+        Path previous = previousPath(destination);
+        recover(destination);
+        deleteRecursively(previous);
+        if (Files.exists(destination)) {
+            move(destination, previous);
+        }
+        try {
+            move(staging, destination);
+        } catch (IOException e) {
+            // Put the previous copy back
+            if (Files.exists(previous)) {
+                move(previous, destination);
+            }
+            throw e;
+        }
+        deleteRecursively(previous);
+    }
+
+    // Put back saves whose replacement was interrupted between its two renames, e.g. by a crash
+    public static void recoverInterrupted(Path savesDirectory) {
+        try (Stream<Path> list = Files.list(savesDirectory)) {
+            for (Path previous : (Iterable<Path>) list::iterator) {
+                String name = previous.getFileName().toString();
+                if (name.startsWith(".") && name.endsWith(".previous")) {
+                    recover(savesDirectory.resolve(name.substring(1, name.length() - ".previous".length())));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error looking for interrupted transfers: " + e.getMessage());
+        }
+    }
+
+    private static void recover(Path destination) {
+        Path previous = previousPath(destination);
+        if (Files.isDirectory(previous) && Files.notExists(destination)) {
+            try {
+                move(previous, destination);
+                System.err.println("Restored " + destination + " after an interrupted transfer.");
+            } catch (IOException e) {
+                System.err.println("Error restoring " + destination + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+    }
+
+    // Copy a single file without going through a Java heap buffer
+    public static long copyFile(Path source, Path destination) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            Files.setLastModifiedTime(destination, Files.getLastModifiedTime(source));
+            return size;
+        }
+    }
+
+    // Hard link a file that won't be modified, copying it if the file system has no hard links
+    public static void linkFile(Path source, Path link) throws IOException {
+        try {
+            Files.createLink(link, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            copyFile(source, link);
+        }
+    }
+
+    public static void deleteRecursively(Path path) throws IOException {
+        if (Files.notExists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // Copies a folder, forking one task per file and sub folder
+    @SuppressWarnings("serial")
+    private static class CopyTask extends RecursiveAction {
+        private final Path source;
+        private final Path destination;
+        private final Report report;
+
+        CopyTask(Path source, Path destination, Report report) {
+            this.source = source;
+            this.destination = destination;
+            this.report = report;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (!Files.isDirectory(source)) {
+                    report.bytesCopied.addAndGet(copyFile(source, destination));
+                    report.filesCopied.incrementAndGet();
+                    return;
+                }
+
+                Files.createDirectories(destination);
+                List<CopyTask> children = new ArrayList<>();
+                try (Stream<Path> list = Files.list(source)) {
+                    list.forEach(child -> children.add(new CopyTask(child, destination.resolve(child.getFileName().toString()), report)));
+                }
+                invokeAll(children);
+            } catch (IOException e) {
+                System.err.println("Error copying " + source + ": " + e.getMessage());
+                report.failures.put(source, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.axperty.svsm.utils;
+
+import javax.swing.*;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+// Follows devices being connected and disconnected with a single long-running "adb track-devices -l",
+// so "adb devices" doesn't have to run before every scan. adb sends the whole device list whenever it changes,
+// as 4 hex digits giving its length followed by the lines of "adb devices -l".
+// If adb exits (e.g. the server was restarted) it is started again after a delay.
+public class DeviceMonitor {
+    private static final long MIN_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 30_000;
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static Thread thread;
+    private static volatile Process process;
+    private static volatile boolean tracking;
+
+    public interface Listener {
+        // Called on the EDT. The first call lists every connected device as added, and is also made
+        // (with nothing added) if no device is connected or adb couldn't be started.
+        void devicesChanged(List<DeviceRegistry.Device> added, List<DeviceRegistry.Device> removed);
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = Thread.ofPlatform().daemon().name("svsm-device-monitor").start(DeviceMonitor::run);
+        Runtime.getRuntime().addShutdownHook(new Thread(DeviceMonitor::stop));
+    }
+
+    public static synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        thread = null;
+        tracking = false;
+        Process current = process;
+        if (current != null) {
+            current.destroy();
+        }
+    }
+
+    // True while the device list is kept up to date by the monitor
+    public static boolean isTracking() {
+        return tracking;
+    }
+
+    private static void run() {
+        long retryMillis = MIN_RETRY_MILLIS;
+        boolean longFormat = true;
+        boolean notified = false;
+        while (!Thread.currentThread().isInterrupted()) {
+            boolean received = false;
+            try {
+                // "-l" (with the device models) needs adb 1.0.41 or newer
+                process = longFormat ? AdbSession.exec("track-devices", "-l") : AdbSession.exec("track-devices");
+                AdbTransfer.drain(process.getErrorStream(), line -> System.err.println("adb track-devices: " + line));
+                try (InputStream input = new BufferedInputStream(process.getInputStream())) {
+                    String message;
+                    while ((message = readMessage(input)) != null) {
+                        update(message, !notified);
+                        received = true;
+                        notified = true;
+                        retryMillis = MIN_RETRY_MILLIS;
+                    }
+                }
+                process.waitFor();
+                if (!received && longFormat) {
+                    longFormat = false;
+                    continue;
+                }
+            } catch (IOException e) {
+                System.err.println("Error tracking Android devices: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                tracking = false;
+                if (process != null) {
+                    process.destroy();
+                }
+            }
+
+            // Nobody is waiting for a first list anymore, e.g. adb isn't installed
+            if (!notified) {
+                notified = true;
+                notify(List.of(), List.of());
+            }
+            try {
+                Thread.sleep(retryMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+        }
+    }
+
+    // One device list, null once adb closed the stream
+    private static String readMessage(InputStream input) throws IOException {
+        byte[] header = input.readNBytes(4);
+        if (header.length < 4) {
+            return null;
+        }
+        int length;
+        try {
+            length = Integer.parseInt(new String(header, StandardCharsets.US_ASCII), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected track-devices output: " + new String(header, StandardCharsets.US_ASCII));
+        }
+        byte[] message = input.readNBytes(length);
+        if (message.length < length) {
+            return null;
+        }
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    private static void update(String message, boolean first) {
+        List<DeviceRegistry.Device> devices = new ArrayList<>();
+        for (String line : message.split("\n")) {
+            DeviceRegistry.Device device = DeviceRegistry.parseLine(line);
+            if (device != null) {
+                devices.add(device);
+            }
+        }
+
+        Set<String> previous = DeviceRegistry.getDevices().stream().map(DeviceRegistry.Device::getSerial).collect(Collectors.toSet());
+        Set<String> current = devices.stream().map(DeviceRegistry.Device::getSerial).collect(Collectors.toSet());
+        List<DeviceRegistry.Device> added = devices.stream().filter(device -> !previous.contains(device.getSerial())).toList();
+        List<DeviceRegistry.Device> removed = DeviceRegistry.getDevices().stream()
+                .filter(device -> !current.contains(device.getSerial())).toList();
+
+        DeviceRegistry.setDevices(devices);
+        tracking = true;
+        for (DeviceRegistry.Device device : removed) {
+            // Its shell session died with the connection
+            AdbSession.close(device.getSerial());
+            System.out.println("Android device disconnected: " + device.getLabel());
+        }
+        for (DeviceRegistry.Device device : added) {
+            System.out.println("Android device connected: " + device.getLabel());
+        }
+        if (first || !added.isEmpty() || !removed.isEmpty()) {
+            notify(added, removed);
+        }
+    }
+
+    private static void notify(List<DeviceRegistry.Device> added, List<DeviceRegistry.Device> removed) {
+        SwingUtilities.invokeLater(() -> {
+            for (Listener listener : listeners) {
+                listener.devicesChanged(added, removed);
+            }
+        });
+    }
+}
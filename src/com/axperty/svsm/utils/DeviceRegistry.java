@@ -0,0 +1,173 @@
+package com.axperty.svsm.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Android devices attached to adb, read from "adb devices -l" or kept up to date by the DeviceMonitor.
+// Every device command is addressed to one of these by serial, so several devices can be used at once.
+public class DeviceRegistry {
+    private static volatile List<Device> devices = List.of();
+
+    public static class Device {
+        private final String serial;
+        private final String model;
+
+        public Device(String serial, String model) {
+            this.serial = serial;
+            this.model = model;
+        }
+
+        public String getSerial() {
+            return serial;
+        }
+
+        // Model reported by adb ("Pixel_7"), null if unknown
+        public String getModel() {
+            return model;
+        }
+
+        // Name shown in the tables and dialogs, e.g. "Pixel 7 (R58M123ABC)"
+        public String getLabel() {
+            return model == null ? serial : model.replace('_', ' ') + " (" + serial + ")";
+        }
+
+        @Override
+        public String toString() {
+            return getLabel();
+        }
+    }
+
+    // Read the attached devices again. Devices that are unauthorized or offline are left out.
+    public static List<Device> refresh() throws IOException, InterruptedException {
+        Process process = AdbSession.exec("devices", "-l");
+        List<Device> found = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Device device = parseLine(line);
+                if (device != null) {
+                    found.add(device);
+                }
+            }
+        }
+        process.waitFor();
+        devices = List.copyOf(found);
+        return devices;
+    }
+
+    // The attached devices, only running "adb devices" if the monitor isn't following them
+    public static List<Device> getConnected() throws IOException, InterruptedException {
+        return DeviceMonitor.isTracking() ? devices : refresh();
+    }
+
+    static void setDevices(List<Device> found) {
+        devices = List.copyOf(found);
+    }
+
+    // Parse a line like "R58M123ABC  device usb:1-1 product:x model:Pixel_7 device:panther transport_id:3"
+    static Device parseLine(String line) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length < 2 || !fields[1].equals("device")) {
+            return null;
+        }
+        String model = null;
+        for (int i = 2; i < fields.length; i++) {
+            if (fields[i].startsWith("model:")) {
+                model = fields[i].substring("model:".length());
+            }
+        }
+        return new Device(fields[0], model);
+    }
+
+    // Devices found by the last refresh
+    public static List<Device> getDevices() {
+        return devices;
+    }
+
+    public static List<String> getSerials() {
+        List<String> serials = new ArrayList<>();
+        for (Device device : devices) {
+            serials.add(device.getSerial());
+        }
+        return serials;
+    }
+
+    // Label of a device for display, with the model remembered by the listing cache if it isn't attached anymore
+    public static String getLabel(String serial) {
+        for (Device device : devices) {
+            if (device.getSerial().equals(serial)) {
+                return device.getLabel();
+            }
+        }
+        return new Device(serial, ListingCache.get().getModel(serial)).getLabel();
+    }
+
+    public static boolean isConnected(String serial) {
+        for (Device device : devices) {
+            if (device.getSerial().equals(serial)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Model of an attached device, null if unknown
+    public static String getModel(String serial) {
+        for (Device device : devices) {
+            if (device.getSerial().equals(serial)) {
+                return device.getModel();
+            }
+        }
+        return null;
+    }
+
+    public interface DeviceTask {
+        void run(String serial) throws Exception;
+    }
+
+    // Run a task on several devices at once and wait for all of them.
+    // Returns the failures by serial, a device failing doesn't stop the others.
+    public static Map<String, Exception> runOnEach(Collection<String> serials, DeviceTask task) {
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        if (serials.size() == 1) {
+            String serial = serials.iterator().next();
+            try {
+                task.run(serial);
+            } catch (Exception e) {
+                failures.put(serial, e);
+            }
+            return failures;
+        }
+
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String serial : serials) {
+                futures.put(serial, executor.submit(TaskRunner.withCurrentTask(() -> {
+                    task.run(serial);
+                    return null;
+                })));
+            }
+            for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+                try {
+                    future.getValue().get();
+                } catch (ExecutionException e) {
+                    failures.put(future.getKey(), e.getCause() instanceof Exception cause ? cause : e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures.put(future.getKey(), e);
+                }
+            }
+        }
+        return failures;
+    }
+}
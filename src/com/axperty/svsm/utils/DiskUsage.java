@@ -0,0 +1,116 @@
+package com.axperty.svsm.utils;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Size and file count of save and backup folders, cached by the folder's modification time.
+// Saves and backup chunks are written to a temporary file and renamed into place, which changes the
+// modification time of the folder, so a folder with the same time isn't walked again.
+public class DiskUsage {
+    public static final Usage UNKNOWN = new Usage(-1, -1);
+
+    private static final Map<String, Cached> cache = new ConcurrentHashMap<>();
+
+    public record Usage(long bytes, int files) {
+        public boolean isKnown() {
+            return bytes >= 0;
+        }
+
+        public Usage plus(Usage other) {
+            if (!isKnown() || !other.isKnown()) {
+                return isKnown() ? this : other;
+            }
+            return new Usage(bytes + other.bytes, files + other.files);
+        }
+    }
+
+    private record Cached(long lastModified, Usage usage) {
+    }
+
+    // Usage of a local folder and everything in it
+    public static Usage of(Path folder) {
+        try {
+            return of(folder, Files.getLastModifiedTime(folder).toMillis());
+        } catch (IOException e) {
+            System.err.println("Error reading size of " + folder + ": " + e.getMessage());
+            return UNKNOWN;
+        }
+    }
+
+    // Usage of a local folder whose modification time is already known, e.g. from the listing
+    public static Usage of(Path folder, long lastModified) {
+        String key = folder.toAbsolutePath().toString();
+        Usage cached = getCached(key, lastModified);
+        if (cached != null) {
+            return cached;
+        }
+        try (Metrics.Span span = Metrics.start("disk.walk", folder.getFileName().toString())) {
+            try {
+                Usage usage = walk(folder);
+                put(key, lastModified, usage);
+                span.bytes(usage.bytes());
+                return usage;
+            } catch (IOException e) {
+                span.fail(e);
+                System.err.println("Error reading size of " + folder + ": " + e.getMessage());
+                return UNKNOWN;
+            }
+        }
+    }
+
+    // Total usage of several folders, the changed ones are walked in parallel
+    public static Usage total(Collection<Path> folders) {
+        return folders.parallelStream()
+                .map(DiskUsage::of)
+                .filter(Usage::isKnown)
+                .reduce(new Usage(0, 0), Usage::plus);
+    }
+
+    // Cached usage of a folder (a local path, or "serial:folder" for a device) if it didn't change since
+    public static Usage getCached(String key, long lastModified) {
+        Cached cached = cache.get(key);
+        boolean hit = cached != null && cached.lastModified == lastModified;
+        Metrics.count(hit ? "disk.cache_hit" : "disk.cache_miss", 1);
+        return hit ? cached.usage : null;
+    }
+
+    public static void put(String key, long lastModified, Usage usage) {
+        if (lastModified >= 0 && usage.isKnown()) {
+            cache.put(key, new Cached(lastModified, usage));
+        }
+    }
+
+    // Forget a folder whose files changed without changing its modification time
+    public static void invalidate(Path folder) {
+        cache.remove(folder.toAbsolutePath().toString());
+    }
+
+    private static Usage walk(Path folder) throws IOException {
+        long[] bytes = {0};
+        int[] files = {0};
+        Files.walkFileTree(folder, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) {
+                    bytes[0] += attributes.size();
+                    files[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // A file removed during the walk
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return new Usage(bytes[0], files[0]);
+    }
+}
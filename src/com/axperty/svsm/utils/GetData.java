@@ -1,143 +1,355 @@
 package com.axperty.svsm.utils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class GetData {
+    public static final String ANDROID_SAVES_PATH = "/storage/emulated/0/Android/data/com.chucklefish.stardewvalley/files/Saves";
+
+    // Separates the "du" and "find" sections of the batched size output
+    private static final String BATCH_SEPARATOR = "---";
+
+    // Precedes each save's SaveGameInfo when reading Android save details
+    private static final String DETAILS_MARKER = "__SVSM_SAVE__ ";
+
     // Helper function to get the last modified date of an Android file using ADB
-    private static String getAndroidLastModifiedDate(String fileName) {
+    private static long getAndroidLastModifiedDate(String serial, String fileName) {
         try {
-            String filePath = "/storage/emulated/0/Android/data/com.chucklefish.stardewvalley/files/Saves/" + fileName;
-            String[] command = {"adb", "shell", "stat", "-c", "%y", filePath};
-            Process process = Runtime.getRuntime().exec(command);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String lastModified = reader.readLine();
+            String filePath = ANDROID_SAVES_PATH + "/" + fileName;
+            AdbSession.Result result = AdbSession.get(serial).run("stat -c %y " + AdbSession.quote(filePath));
+            String lastModified = result.getLines().isEmpty() ? null : result.getLines().get(0);
+            if (lastModified == null) {
+                System.err.println("Error getting last modified date for Android save: no output for " + fileName);
+                return -1;
+            }
 
-            // Format the output
+            // Parse the output
             SimpleDateFormat inputFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-            SimpleDateFormat outputFormat = new SimpleDateFormat("MM/dd/yyyy");
-            Date date = inputFormat.parse(lastModified.trim());
-            return outputFormat.format(date);
+            Date date = inputFormat.parse(lastModified.trim(), new ParsePosition(0));
+            if (date == null) {
+                System.err.println("Error getting last modified date for Android save: unexpected output \"" + lastModified + "\"");
+                return -1;
+            }
+            return date.getTime();
 
-        } catch (IOException | ParseException e) {
+        } catch (IOException e) {
             System.err.println("Error getting last modified date for Android save: " + e.getMessage());
-            return "N/A";
+            return -1;
         }
     }
 
     // Helper function to get the last modified date of a Steam save
-    private static String getLastModifiedDate(Path path) {
+    private static long getLastModifiedDate(Path path) {
         try {
             BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
             FileTime lastModifiedTime = attr.lastModifiedTime();
-            SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
-            return dateFormat.format(new Date(lastModifiedTime.toMillis()));
+            return lastModifiedTime.toMillis();
         } catch (IOException e) {
             System.err.println("Error getting last modified date for Steam save: " + e.getMessage());
-            return "N/A";
+            return -1;
         }
     }
 
     public static List<String[]> getAndroidSavesData() {
-        List<String[]> saveData = new ArrayList<>();
+        List<String[]> saveData = Collections.synchronizedList(new ArrayList<>());
+        scanAndroidSaves(save -> saveData.add(save.toRow()));
+        return saveData;
+    }
+
+    // List the Android saves of every connected device, passing each one to the consumer as soon as it is found.
+    // Devices are scanned at the same time, so the consumer must be thread safe.
+    public static void scanAndroidSaves(Consumer<SaveInfo> consumer) {
+        List<String> serials;
         try {
-            // Check if an Android device is connected
-            String[] deviceListCommand = {"adb", "devices"};
-            Process deviceListProcess = Runtime.getRuntime().exec(deviceListCommand);
-            BufferedReader deviceListReader = new BufferedReader(new InputStreamReader(deviceListProcess.getInputStream()));
-
-            // Skip the first line ("List of devices attached")
-            deviceListReader.readLine();
-            String deviceLine;
-            boolean deviceFound = false;
-            while ((deviceLine = deviceListReader.readLine()) != null) {
-                if (deviceLine.trim().endsWith("device")) {
-                    deviceFound = true;
-                    break;
+            serials = DeviceRegistry.getConnected().stream().map(DeviceRegistry.Device::getSerial).toList();
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error getting Android save data: " + e.getMessage());
+            return;
+        }
+        if (serials.isEmpty()) {
+            System.err.println("No Android device connected.");
+            return;
+        }
+        DeviceRegistry.runOnEach(serials, serial -> scanAndroidSaves(serial, consumer));
+    }
+
+    // List the Android saves of one device
+    public static void scanAndroidSaves(String serial, Consumer<SaveInfo> consumer) {
+        try (Metrics.Span span = Metrics.start("scan.android", serial)) {
+            try {
+                // List every save with a single remote command, fall back to one call per save if it fails
+                Consumer<SaveInfo> onDevice = save -> consumer.accept(save.withDevice(serial));
+                if (!scanAndroidSavesBatched(serial, onDevice)) {
+                    Metrics.count("scan.android_fallback", 1);
+                    for (SaveInfo save : getAndroidSavesPerSave(serial)) {
+                        onDevice.accept(save);
+                    }
+                }
+
+            } catch (IOException e) {
+                span.fail(e);
+                System.err.println("Error getting Android save data from " + serial + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Get name, ID, last modified date, size and file count of every Android save.
+    // One adb round-trip lists the saves, and a second one measures the saves that changed since they were
+    // last measured, saves with a cached size are passed on right away.
+    // Returns false if the device doesn't support the batched listing.
+    private static boolean scanAndroidSavesBatched(String serial, Consumer<SaveInfo> consumer) throws IOException {
+        String script = "cd " + ANDROID_SAVES_PATH + " && stat -c '%Y %n' *_*";
+
+        // Output is "<mtime> <folder>" lines
+        List<SaveInfo> changed = new ArrayList<>();
+        int[] found = {0};
+        int exitCode = AdbSession.get(serial).stream(script, line -> {
+            String[] fields = line.trim().split("\\s+", 2);
+            if (fields.length != 2) {
+                return;
+            }
+            try {
+                SaveInfo save = SaveInfo.fromFolderName(fields[1], Long.parseLong(fields[0]) * 1000, -1);
+                if (save == null) {
+                    return;
+                }
+                found[0]++;
+                DiskUsage.Usage usage = DiskUsage.getCached(usageKey(serial, save), save.getLastModified());
+                if (usage != null) {
+                    consumer.accept(save.withUsage(usage));
+                } else {
+                    changed.add(save);
                 }
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping unexpected listing line: " + line);
             }
+        });
 
-            if (!deviceFound) {
-                System.err.println("No Android device connected.");
-                return saveData;
+        if (exitCode != 0 && found[0] == 0) {
+            System.err.println("Batched Android listing failed (exit code " + exitCode + "), listing saves one by one.");
+            return false;
+        }
+        if (!changed.isEmpty()) {
+            Map<String, DiskUsage.Usage> usages = measureAndroidSaves(serial, changed);
+            for (SaveInfo save : changed) {
+                DiskUsage.Usage usage = usages.getOrDefault(save.getFolderName(), DiskUsage.UNKNOWN);
+                DiskUsage.put(usageKey(serial, save), save.getLastModified(), usage);
+                consumer.accept(save.withUsage(usage));
             }
+        }
+        return true;
+    }
+
+    // Size and file count of Android save folders, with a single "du" and "find" for all of them
+    private static Map<String, DiskUsage.Usage> measureAndroidSaves(String serial, List<SaveInfo> saves) throws IOException {
+        StringBuilder folders = new StringBuilder();
+        for (SaveInfo save : saves) {
+            folders.append(' ').append(AdbSession.quote(save.getFolderName()));
+        }
+        String script = "cd " + ANDROID_SAVES_PATH + " && du -sk" + folders + " && echo " + BATCH_SEPARATOR
+                + " && find" + folders + " -type f";
 
-            // List files in the Android saves directory
-            String[] command = {"adb", "shell", "ls", "/storage/emulated/0/Android/data/com.chucklefish.stardewvalley/files/Saves"};
-            Process process = Runtime.getRuntime().exec(command);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-            // Process each file found
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("_");
-                if (parts.length == 2) {
-                    String saveName = parts[0];
-                    String saveId = parts[1];
-
-                    // Get last modified date using ADB
-                    String lastPlayed = getAndroidLastModifiedDate(saveName + "_" + saveId);
-                    saveData.add(new String[]{saveName + " Farm", saveId, lastPlayed});
+        // Output is "<size in KB>\t<folder>" lines, the separator, then one "<folder>/<file>" line per file
+        Map<String, Long> sizes = new HashMap<>();
+        Map<String, Integer> fileCounts = new HashMap<>();
+        boolean[] filesSection = {false};
+        AdbSession.get(serial).stream(script, line -> {
+            if (line.equals(BATCH_SEPARATOR)) {
+                filesSection[0] = true;
+            } else if (filesSection[0]) {
+                int slash = line.indexOf('/');
+                if (slash > 0) {
+                    fileCounts.merge(line.substring(0, slash), 1, Integer::sum);
+                }
+            } else {
+                String[] fields = line.trim().split("\\s+", 2);
+                try {
+                    if (fields.length == 2) {
+                        sizes.put(fields[1], Long.parseLong(fields[0]) * 1024);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping unexpected du line: " + line);
                 }
             }
+        });
+
+        Map<String, DiskUsage.Usage> usages = new HashMap<>();
+        sizes.forEach((folder, bytes) -> usages.put(folder, new DiskUsage.Usage(bytes, fileCounts.getOrDefault(folder, 0))));
+        return usages;
+    }
+
+    private static String usageKey(String serial, SaveInfo save) {
+        return serial + ":" + save.getFolderName();
+    }
 
-            // Error handling
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                System.err.println("Error executing ADB command. Exit code: " + exitCode);
+    // Read the SaveGameInfo of the given Android saves with one remote command per device, passing each save
+    // with its details to the consumer. Files are parsed in parallel while the next ones are still downloading.
+    // Only the given saves are read, so the table can ask for just the rows it shows.
+    public static void readAndroidSaveDetails(Collection<SaveInfo> saves, Consumer<SaveInfo> consumer) {
+        Map<String, Map<String, SaveInfo>> byDevice = new HashMap<>();
+        for (SaveInfo save : saves) {
+            byDevice.computeIfAbsent(save.getDevice(), k -> new HashMap<>()).put(save.getFolderName(), save);
+        }
+        byDevice.remove(null);
+        DeviceRegistry.runOnEach(byDevice.keySet(), serial -> readAndroidSaveDetails(serial, byDevice.get(serial), consumer));
+    }
+
+    private static void readAndroidSaveDetails(String serial, Map<String, SaveInfo> byFolder, Consumer<SaveInfo> consumer) {
+        StringBuilder folders = new StringBuilder();
+        for (String folderName : byFolder.keySet()) {
+            folders.append(' ').append(AdbSession.quote(folderName));
+        }
+        String script = "cd " + ANDROID_SAVES_PATH + " && for d in" + folders + "; do echo \"" + DETAILS_MARKER + "$d\"; cat \"$d/"
+                + SaveGameInfoReader.FILE_NAME + "\"; echo; done";
+        List<CompletableFuture<Void>> parsing = new ArrayList<>();
+        StringBuilder document = new StringBuilder();
+        String[] folder = {null};
+        Runnable parseDocument = () -> {
+            SaveInfo save = byFolder.get(folder[0]);
+            if (save != null) {
+                String xml = document.toString();
+                parsing.add(CompletableFuture.runAsync(() -> {
+                    SaveDetails details;
+                    try (Metrics.Span span = Metrics.start("parse.savegameinfo", save.getFolderName())) {
+                        details = SaveGameInfoReader.read(new StringReader(xml));
+                        if (details == null) {
+                            span.fail("Unreadable SaveGameInfo");
+                        }
+                    }
+                    consumer.accept(save.withDetails(details));
+                }));
             }
+            document.setLength(0);
+        };
 
-        } catch (IOException | InterruptedException e) {
-            System.err.println("Error getting Android save data: " + e.getMessage());
+        try (Metrics.Span span = Metrics.start("details.android", serial)) {
+            try {
+                AdbSession.get(serial).stream(script, line -> {
+                    if (line.startsWith(DETAILS_MARKER)) {
+                        parseDocument.run();
+                        folder[0] = line.substring(DETAILS_MARKER.length());
+                    } else {
+                        document.append(line).append('\n');
+                    }
+                });
+                parseDocument.run();
+                CompletableFuture.allOf(parsing.toArray(new CompletableFuture<?>[0])).join();
+            } catch (IOException e) {
+                span.fail(e);
+                System.err.println("Error reading Android save details from " + serial + ": " + e.getMessage());
+            }
         }
+    }
 
-        return saveData;
+    // Fallback listing that runs one "stat" per save
+    private static List<SaveInfo> getAndroidSavesPerSave(String serial) throws IOException {
+        List<SaveInfo> saves = new ArrayList<>();
+
+        // List files in the Android saves directory
+        AdbSession.Result result = AdbSession.get(serial).run("ls " + ANDROID_SAVES_PATH);
+
+        // Process each file found
+        for (String line : result.getLines()) {
+            String[] parts = line.split("_");
+            if (parts.length == 2) {
+                String saveName = parts[0];
+                String saveId = parts[1];
+
+                // Get last modified date using ADB
+                long lastModified = getAndroidLastModifiedDate(serial, saveName + "_" + saveId);
+                saves.add(new SaveInfo(saveName, saveId, lastModified, -1));
+            }
+        }
+
+        // Error handling
+        if (result.getExitCode() != 0) {
+            System.err.println("Error executing ADB command. Exit code: " + result.getExitCode());
+        }
+        return saves;
     }
 
     public static List<String[]> getSteamSavesData() {
-        List<String[]> saveData = new ArrayList<>();
+        List<String[]> saveData = Collections.synchronizedList(new ArrayList<>());
+        scanSteamSaves(save -> saveData.add(save.toRow()));
+        return saveData;
+    }
+
+    // Read a single Steam save folder and its SaveGameInfo details, returns null if it isn't a save folder
+    public static SaveInfo getSteamSaveInfo(Path path) {
+        return getSteamSaveInfo(path, true);
+    }
 
-        // Get the Steam user's AppData path
-        String appDataPath = System.getenv("APPDATA");
-        if (appDataPath == null) {
-            System.err.println("Error: Unable to get APPDATA environment variable.");
-            return saveData;
+    // Read a single Steam save folder, the SaveGameInfo is only parsed if withDetails is true.
+    // The size is only measured again if the folder changed since the last time.
+    public static SaveInfo getSteamSaveInfo(Path path, boolean withDetails) {
+        SaveInfo save = SaveInfo.fromFolderName(path.getFileName().toString(), getLastModifiedDate(path), -1);
+        if (save == null) {
+            return null;
         }
+        save = save.withUsage(DiskUsage.of(path, save.getLastModified()));
+        return withDetails ? save.withDetails(SaveGameInfoReader.read(path)) : save;
+    }
+
+    // List Steam saves with their details, passing each one to the consumer as soon as it is found.
+    // Saves are read in parallel, so the consumer must be thread safe.
+    public static void scanSteamSaves(Consumer<SaveInfo> consumer) {
+        scanSteamSaves(consumer, true);
+    }
 
-        String savesDirectory = appDataPath + "/StardewValley/Saves";
+    // List the saves of the game's Saves folder, without reading their SaveGameInfo if withDetails is false
+    public static void scanSteamSaves(Consumer<SaveInfo> consumer, boolean withDetails) {
+        Path savesDirectory = SaveLocations.getGameSavesPath();
+        if (savesDirectory == null) {
+            return;
+        }
+        scanSteamSaves(savesDirectory, consumer, withDetails);
+    }
 
+    // List the saves of a folder of save folders, e.g. a save location other than the game's Saves folder
+    public static void scanSteamSaves(Path savesDirectory, Consumer<SaveInfo> consumer, boolean withDetails) {
         // Read directory contents using Java File API
+        CopyEngine.recoverInterrupted(savesDirectory);
+        List<Path> folders;
+        try (Stream<Path> list = Files.list(savesDirectory)) {
+            // Folders starting with a dot are copies being staged or replaced
+            folders = list.filter(Files::isDirectory)
+                    .filter(path -> !path.getFileName().toString().startsWith("."))
+                    .toList();
+        } catch (IOException e) {
+            System.err.println("Error: Unable to access saves directory " + savesDirectory + ": " + e.getMessage());
+            return;
+        }
+
+        // Parse the SaveGameInfo of each save in parallel
+        Metrics.Span span = Metrics.start("scan.steam", savesDirectory.toString());
         try {
-            Files.list(Paths.get(savesDirectory))
-                    .filter(Files::isDirectory)
+            folders.parallelStream()
                     .forEach(path -> {
-                        String fileName = path.getFileName().toString();
-                        String[] parts = fileName.split("_");
-                        if (parts.length == 2) {
-                            String saveName = parts[0];
-                            String saveID = parts[1];
-                            String lastPlayed = getLastModifiedDate(path);
-                            saveData.add(new String[]{saveName + " Farm", saveID, lastPlayed});
+                        SaveInfo save = getSteamSaveInfo(path, withDetails);
+                        if (save != null) {
+                            consumer.accept(save);
                         } else {
-                            System.err.println("Skipping invalid save folder name: " + fileName);
+                            System.err.println("Skipping invalid save folder name: " + path.getFileName());
                         }
                     });
-
-        } catch (IOException e) {
-            System.err.println("Error: Unable to access Steam saves directory: " + e.getMessage());
+        } finally {
+            span.close();
         }
-
-        return saveData;
     }
-}
\ No newline at end of file
+}
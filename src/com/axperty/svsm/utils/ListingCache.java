@@ -0,0 +1,320 @@
+package com.axperty.svsm.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Last known listings of each local save location and of each Android device, with sizes and farm details,
+// kept in "svsm-listing.cache" next to the jar. At startup the tables show them right away, marked as stale
+// until a scan confirms them, and the saves of a disconnected device can still be browsed.
+// -Dsvsm.listingCache=<file> keeps it somewhere else, -Dsvsm.listingCache=off turns it off.
+//
+// The file is big-endian: "SVLC", the format version and the number of listings, then for each listing
+// the device serial ("" for local saves), the save location ("" for the game's Saves folder and devices),
+// the device model ("" if unknown), the scan time and the number of saves,
+// then for each save its name, ID, last modified time, size, file count and the farm details if known.
+// Strings are an int length followed by UTF-8 bytes.
+public class ListingCache {
+    private static final int MAGIC = 0x53564C43; // "SVLC"
+    private static final int VERSION = 2;
+
+    private static ListingCache instance;
+
+    private final Path file;
+    private final Map<String, Listing> listings = new LinkedHashMap<>();
+    private boolean dirty = false;
+
+    // The saves of one device or local save location by folder name
+    private static class Listing {
+        private final String device;
+        private final String location;
+        private final String model;
+        private final long scanned;
+        private final Map<String, SaveInfo> saves = new LinkedHashMap<>();
+
+        private Listing(String device, String location, String model, long scanned) {
+            this.device = device;
+            this.location = location;
+            this.model = model;
+            this.scanned = scanned;
+        }
+    }
+
+    private ListingCache(Path file) {
+        this.file = file;
+    }
+
+    // The cache, read from its file the first time. What changed is written back when the application exits.
+    public static synchronized ListingCache get() {
+        if (instance == null) {
+            String setting = System.getProperty("svsm.listingCache");
+            Path file = "off".equals(setting) ? null
+                    : setting != null ? Paths.get(setting) : Paths.get(System.getProperty("user.dir"), "svsm-listing.cache");
+            instance = new ListingCache(file);
+            if (file != null) {
+                instance.load();
+                Runtime.getRuntime().addShutdownHook(new Thread(instance::write));
+            }
+        }
+        return instance;
+    }
+
+    // Last known local saves of the save locations that are still configured, marked as stale
+    public synchronized List<SaveInfo> getSteamSaves() {
+        List<SaveInfo> saves = new ArrayList<>();
+        for (Listing listing : listings.values()) {
+            if (listing.device == null && SaveLocations.get(listing.location) != null) {
+                saves.addAll(stale(listing.saves.values()));
+            }
+        }
+        return saves;
+    }
+
+    // Last known saves of one save location (null for the game's Saves folder), marked as stale
+    public synchronized List<SaveInfo> getSteamSaves(String location) {
+        Listing listing = listings.get(key(null, location));
+        return listing == null ? List.of() : stale(listing.saves.values());
+    }
+
+    // Last known saves of every device, marked as stale
+    public synchronized List<SaveInfo> getAndroidSaves() {
+        List<SaveInfo> saves = new ArrayList<>();
+        for (Listing listing : listings.values()) {
+            if (listing.device != null) {
+                saves.addAll(stale(listing.saves.values()));
+            }
+        }
+        return saves;
+    }
+
+    // Model of a device seen before, null if unknown
+    public synchronized String getModel(String device) {
+        Listing listing = listings.get(key(device, null));
+        return (listing == null || listing.model.isEmpty()) ? null : listing.model;
+    }
+
+    // Replace the listing of a device with the saves of a scan.
+    // Details already known for a save that didn't change are kept.
+    public synchronized void putListing(String device, String model, Collection<SaveInfo> saves) {
+        putListing(device, null, model, saves);
+    }
+
+    // Replace the listing of a local save location (null for the game's Saves folder) with the saves of a scan
+    public synchronized void putSteamListing(String location, Collection<SaveInfo> saves) {
+        putListing(null, location, null, saves);
+    }
+
+    private void putListing(String device, String location, String model, Collection<SaveInfo> saves) {
+        String key = key(device, location);
+        Listing previous = listings.get(key);
+        Listing listing = new Listing(device, location, model != null ? model : previous != null ? previous.model : "",
+                System.currentTimeMillis());
+        for (SaveInfo save : saves) {
+            listing.saves.put(save.getFolderName(), merge(previous, save));
+        }
+        listings.put(key, listing);
+        dirty = true;
+    }
+
+    // Add or update a single save, e.g. once its details were read
+    public synchronized void putSave(SaveInfo save) {
+        Listing listing = listings.computeIfAbsent(key(save.getDevice(), save.getLocation()),
+                k -> new Listing(save.getDevice(), save.getLocation(), "", System.currentTimeMillis()));
+        listing.saves.put(save.getFolderName(), merge(listing, save).withStale(false));
+        dirty = true;
+    }
+
+    // Forget a deleted save, device is null for local saves and location null for the game's Saves folder
+    public synchronized void removeSave(String folderName, String device, String location) {
+        Listing listing = listings.get(key(device, location));
+        if (listing != null && listing.saves.remove(folderName) != null) {
+            dirty = true;
+        }
+    }
+
+    // A scanned save with the details of its cached copy if it didn't change since, so they aren't read again
+    public synchronized SaveInfo merge(SaveInfo save) {
+        return merge(listings.get(key(save.getDevice(), save.getLocation())), save);
+    }
+
+    // Devices by serial, save locations by name after a "/", which no serial starts with
+    private static String key(String device, String location) {
+        return device != null ? device : "/" + (location == null ? "" : location);
+    }
+
+    private static SaveInfo merge(Listing listing, SaveInfo save) {
+        if (save.getDetails() != null || listing == null) {
+            return save;
+        }
+        SaveInfo cached = listing.saves.get(save.getFolderName());
+        if (cached == null || cached.getDetails() == null || cached.getLastModified() != save.getLastModified()) {
+            return save;
+        }
+        return save.withDetails(cached.getDetails());
+    }
+
+    private static List<SaveInfo> stale(Collection<SaveInfo> saves) {
+        List<SaveInfo> list = new ArrayList<>(saves.size());
+        for (SaveInfo save : saves) {
+            list.add(save.withStale(true));
+        }
+        return list;
+    }
+
+    // The whole file is mapped and parsed in one pass, a damaged or older file is ignored.
+    // This runs on the EDT before the window shows, so it isn't timed with Metrics, whose first use is slow.
+    private void load() {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                System.err.println("Ignoring listing cache " + file + ", unknown format.");
+                return;
+            }
+            int listingCount = buffer.getInt();
+            for (int i = 0; i < listingCount; i++) {
+                String device = emptyToNull(readString(buffer));
+                String location = emptyToNull(readString(buffer));
+                Listing listing = new Listing(device, location, readString(buffer), buffer.getLong());
+                int saveCount = buffer.getInt();
+                for (int j = 0; j < saveCount; j++) {
+                    SaveInfo save = readSave(buffer, device).withLocation(location);
+                    listing.saves.put(save.getFolderName(), save);
+                }
+                listings.put(key(device, location), listing);
+            }
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            listings.clear();
+            System.err.println("Ignoring listing cache " + file + ": " + e);
+        }
+    }
+
+    private static SaveInfo readSave(ByteBuffer buffer, String device) {
+        String name = readString(buffer);
+        String id = readString(buffer);
+        long lastModified = buffer.getLong();
+        long size = buffer.getLong();
+        int files = buffer.getInt();
+        SaveDetails details = null;
+        if (buffer.get() != 0) {
+            details = new SaveDetails(readString(buffer), readString(buffer), buffer.getInt(), buffer.getInt(),
+                    buffer.getInt(), buffer.getLong(), buffer.getLong());
+        }
+        return new SaveInfo(name, id, lastModified, size, files, details, device);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Write the cache if it changed, to a temporary file renamed over the previous one
+    public void write() {
+        if (file == null) {
+            return;
+        }
+        List<Listing> snapshot = new ArrayList<>();
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            for (Listing listing : listings.values()) {
+                Listing copy = new Listing(listing.device, listing.location, listing.model, listing.scanned);
+                copy.saves.putAll(listing.saves);
+                snapshot.add(copy);
+            }
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Metrics.Span span = Metrics.start("cache.write", null)) {
+            try {
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                    output.writeInt(MAGIC);
+                    output.writeInt(VERSION);
+                    output.writeInt(snapshot.size());
+                    for (Listing listing : snapshot) {
+                        writeString(output, listing.device);
+                        writeString(output, listing.location);
+                        writeString(output, listing.model);
+                        output.writeLong(listing.scanned);
+                        output.writeInt(listing.saves.size());
+                        for (SaveInfo save : listing.saves.values()) {
+                            writeSave(output, save);
+                        }
+                    }
+                    span.bytes(output.size());
+                }
+                replace(temporary);
+            } catch (IOException e) {
+                span.fail(e);
+                System.err.println("Error writing listing cache " + file + ": " + e.getMessage());
+                synchronized (this) {
+                    dirty = true;
+                }
+            }
+        }
+    }
+
+    // On Windows a file can't be replaced while it is mapped, the mapping of the startup read
+    // goes away once its buffer is garbage collected
+    private void replace(Path temporary) throws IOException {
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.gc();
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static void writeSave(DataOutputStream output, SaveInfo save) throws IOException {
+        writeString(output, save.getSaveName());
+        writeString(output, save.getSaveId());
+        output.writeLong(save.getLastModified());
+        output.writeLong(save.getSizeBytes());
+        output.writeInt(save.getFileCount());
+        SaveDetails details = save.getDetails();
+        output.writeByte(details == null ? 0 : 1);
+        if (details != null) {
+            writeString(output, details.getFarmerName());
+            writeString(output, details.getFarmName());
+            output.writeInt(details.getDay());
+            output.writeInt(details.getSeason());
+            output.writeInt(details.getYear());
+            output.writeLong(details.getMoney());
+            output.writeLong(details.getMillisecondsPlayed());
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+}
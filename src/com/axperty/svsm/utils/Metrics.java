@@ -0,0 +1,269 @@
+package com.axperty.svsm.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histograms and counters for every I/O path: scans, adb commands, transfers, copies, deletes and parses.
+// Each operation is timed with a Span, which also adds it to the per-target totals (device serial or save folder),
+// writes it to the operation log and, when a JFR recording is running, emits an "svsm.Operation" event.
+// Recording is lock-free so it can be used from the parallel scans.
+public class Metrics {
+    // Per-target totals kept at most, targets beyond it are added to OTHER_TARGET
+    private static final int MAX_TARGETS = 2000;
+    private static final String OTHER_TARGET = "(other)";
+
+    private static final Map<String, Histogram> operations = new ConcurrentHashMap<>();
+    private static final Map<String, TargetStats> targets = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    // Start timing an operation, target is the device serial or folder it works on (null if none)
+    public static Span start(String operation, String target) {
+        return new Span(operation, target);
+    }
+
+    // Add to a counter, e.g. cache hits
+    public static void count(String counter, long amount) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).add(amount);
+    }
+
+    // A timed operation, closed once it finished.
+    // It counts as failed if fail() was called before closing it.
+    public static class Span implements AutoCloseable {
+        private final String operation;
+        private final String target;
+        private final long start = System.nanoTime();
+        private final OperationEvent event = new OperationEvent();
+        private long bytes = -1;
+        private String error;
+
+        private Span(String operation, String target) {
+            this.operation = operation;
+            this.target = target;
+            event.begin();
+        }
+
+        public Span bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        public void fail(String error) {
+            this.error = error;
+        }
+
+        public void fail(Exception e) {
+            fail(e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - start;
+            boolean success = error == null;
+            operations.computeIfAbsent(operation, Histogram::new).record(nanos, success);
+            if (target != null) {
+                targetStats(operation, target).record(nanos);
+            }
+            OperationLog.write(operation, target, nanos, bytes, error);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.target = target;
+                event.bytes = bytes;
+                event.success = success;
+                event.error = error;
+                event.commit();
+            }
+        }
+    }
+
+    private static TargetStats targetStats(String operation, String target) {
+        String key = operation + "\t" + target;
+        TargetStats stats = targets.get(key);
+        if (stats == null) {
+            String tracked = (targets.size() < MAX_TARGETS) ? target : OTHER_TARGET;
+            stats = targets.computeIfAbsent(operation + "\t" + tracked, k -> new TargetStats(operation, tracked));
+        }
+        return stats;
+    }
+
+    // Operations sorted by name
+    public static List<Histogram> getOperations() {
+        List<Histogram> list = new ArrayList<>(operations.values());
+        list.sort(Comparator.comparing(Histogram::getOperation));
+        return list;
+    }
+
+    // Targets that took the most time overall, the first place to look when a refresh is slow
+    public static List<TargetStats> getSlowestTargets(int limit) {
+        return targets.values().stream()
+                .sorted(Comparator.comparingLong(TargetStats::getTotalNanos).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    public static Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, adder) -> values.put(name, adder.sum()));
+        return values;
+    }
+
+    public static void reset() {
+        operations.clear();
+        targets.clear();
+        counters.clear();
+    }
+
+    // Latency distribution of one operation.
+    // Buckets split each power of two of nanoseconds in 4, so percentiles are within 25% of the real value.
+    public static class Histogram {
+        private static final int SUB_BUCKETS = 4;
+
+        private final String operation;
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Histogram(String operation) {
+            this.operation = operation;
+        }
+
+        private void record(long nanos, boolean success) {
+            nanos = Math.max(nanos, 1);
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            if (!success) {
+                errors.increment();
+            }
+        }
+
+        private static int bucket(long nanos) {
+            int power = 63 - Long.numberOfLeadingZeros(nanos);
+            int fraction = power < 2 ? 0 : (int) ((nanos >>> (power - 2)) & (SUB_BUCKETS - 1));
+            return power * SUB_BUCKETS + fraction;
+        }
+
+        // Upper bound of a bucket
+        private static long bucketLimit(int bucket) {
+            int power = bucket / SUB_BUCKETS;
+            int fraction = bucket % SUB_BUCKETS;
+            return power < 2 ? (2L << power) - 1 : (1L << power) + ((fraction + 1L) << (power - 2)) - 1;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        // Latency below which the given fraction (e.g. 0.95) of the operations finished
+        public long getPercentileNanos(double fraction) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(bucketLimit(i), getMaxNanos());
+                }
+            }
+            return 0;
+        }
+    }
+
+    // Time spent on one device or folder by one operation
+    public static class TargetStats {
+        private final String operation;
+        private final String target;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private TargetStats(String operation, String target) {
+            this.operation = operation;
+            this.target = target;
+        }
+
+        private void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+    }
+
+    // Shows up in JDK Flight Recorder, e.g. with java -XX:StartFlightRecording=filename=svsm.jfr
+    @Name("svsm.Operation")
+    @Label("Saves Manager Operation")
+    @Category("Stardew Valley Saves Manager")
+    @Description("A scan, adb command, transfer, copy, delete or parse")
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Target")
+        String target;
+
+        @Label("Bytes")
+        long bytes;
+
+        @Label("Success")
+        boolean success;
+
+        @Label("Error")
+        String error;
+    }
+}
@@ -0,0 +1,144 @@
+package com.axperty.svsm.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Structured log of the timed operations, one JSON object per line in "svsm-operations.log" in the working directory:
+// {"time":"2024-05-01T10:00:00Z","op":"adb.command","target":"R58M123ABC","ms":12.5,"bytes":-1,"ok":true}
+// Lines are written by a background thread, so logging never waits on the disk.
+// -Dsvsm.log=<file> writes somewhere else, -Dsvsm.log=off turns it off.
+// Operations that succeeded faster than -Dsvsm.logMinMillis (1 ms by default) are left out, failures are always kept.
+public class OperationLog {
+    private static final long MAX_SIZE = 5 * 1024 * 1024;
+    private static final int QUEUE_SIZE = 10_000;
+
+    private static final Path file = getFile();
+    private static final long minNanos = Long.getLong("svsm.logMinMillis", 1) * 1_000_000;
+    private static final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static Thread writer;
+
+    private static Path getFile() {
+        String setting = System.getProperty("svsm.log");
+        if ("off".equals(setting)) {
+            return null;
+        }
+        return setting != null ? Paths.get(setting) : Paths.get(System.getProperty("user.dir"), "svsm-operations.log");
+    }
+
+    public static Path getPath() {
+        return file;
+    }
+
+    static void write(String operation, String target, long nanos, long bytes, String error) {
+        if (file == null || (error == null && nanos < minNanos)) {
+            return;
+        }
+        StringBuilder line = new StringBuilder("{\"time\":\"").append(Instant.now()).append('"')
+                .append(",\"op\":").append(quote(operation))
+                .append(",\"target\":").append(quote(target))
+                .append(",\"ms\":").append(nanos / 1000 / 1000.0)
+                .append(",\"bytes\":").append(bytes)
+                .append(",\"ok\":").append(error == null);
+        if (error != null) {
+            line.append(",\"error\":").append(quote(error));
+        }
+        line.append('}');
+
+        startWriter();
+        if (!queue.offer(line.toString())) {
+            Metrics.count("log.dropped", 1);
+        }
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread(OperationLog::writeLoop, "svsm-operation-log");
+        writer.setDaemon(true);
+        writer.start();
+
+        // Write what is still queued when the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread(OperationLog::flush));
+    }
+
+    private static void writeLoop() {
+        try {
+            while (true) {
+                String first = queue.poll(1, TimeUnit.MINUTES);
+                if (first != null) {
+                    List<String> lines = new ArrayList<>(List.of(first));
+                    queue.drainTo(lines);
+                    append(lines);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void flush() {
+        List<String> lines = new ArrayList<>();
+        queue.drainTo(lines);
+        append(lines);
+    }
+
+    // Several threads never write at once, the writer thread only runs while the application does
+    private static synchronized void append(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        try {
+            // Keep the previous log as "<file>.1" once the current one is full
+            if (Files.exists(file) && Files.size(file) > MAX_SIZE) {
+                Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            try (BufferedWriter output = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (String line : lines) {
+                    output.write(line);
+                    output.newLine();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing operation log: " + e.getMessage());
+        }
+    }
+
+    // A JSON string, null if the value is null. Also used for the command line's JSON output.
+    public static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
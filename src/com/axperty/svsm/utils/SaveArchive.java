@@ -0,0 +1,405 @@
+package com.axperty.svsm.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Exports any selection of saves, from every platform, into one zip archive and imports such an archive into
+// the game's Saves folder or a device. The archive holds each save as a folder at its root, like the Saves folder,
+// so it can be made or opened with any zip tool too.
+// An export deflates the files in parallel with ZipWriter, Android saves stream off the device as one tar archive
+// and are compressed as they arrive. An import to Android streams the files out of the zip into one tar push,
+// so nothing is extracted to a temporary folder when the device has tar.
+// Like every transfer, each save is built next to the live one and only replaces it once it is complete.
+public class SaveArchive {
+    // Saves that were imported and those that failed, by folder name
+    public record Result(List<String> imported, List<String> failed) {
+    }
+
+    // Write the saves into a zip file, which is only replaced once the archive is complete
+    public static void export(List<SaveInfo> saves, Path zipFile) throws IOException, InterruptedException {
+        Set<String> names = new HashSet<>();
+        long totalBytes = 0;
+        for (SaveInfo save : saves) {
+            if (!names.add(save.getFolderName())) {
+                throw new IOException(save.getFolderName() + " is selected more than once, export each copy on its own");
+            }
+            totalBytes += save.getSizeBytes();
+        }
+
+        // Android saves are exported device by device, each one with a single stream
+        List<SaveInfo> local = new ArrayList<>();
+        Map<String, List<String>> byDevice = new LinkedHashMap<>();
+        for (SaveInfo save : saves) {
+            if (save.getDevice() == null) {
+                local.add(save);
+            } else {
+                byDevice.computeIfAbsent(save.getDevice(), k -> new ArrayList<>()).add(save.getFolderName());
+            }
+        }
+
+        Path temporary = zipFile.resolveSibling(zipFile.getFileName() + ".part");
+        boolean success = false;
+        try (Metrics.Span span = Metrics.start("archive.export", zipFile.getFileName().toString())) {
+            try (ZipWriter zip = new ZipWriter(temporary)) {
+                long done = 0;
+                for (SaveInfo save : local) {
+                    checkCancelled();
+                    Path folder = SaveLocations.resolve(save);
+                    if (folder == null || !Files.isDirectory(folder)) {
+                        throw new IOException("Save " + save.getFolderName() + " wasn't found");
+                    }
+                    TaskRunner.progress(save.getFolderName(), totalBytes > 0 ? (double) done / totalBytes : -1);
+                    addFolder(zip, folder, save.getFolderName());
+                    done += save.getSizeBytes();
+                }
+                for (Map.Entry<String, List<String>> entry : byDevice.entrySet()) {
+                    checkCancelled();
+                    addAndroidSaves(zip, entry.getKey(), entry.getValue());
+                }
+                zip.finish();
+            } catch (IOException | RuntimeException e) {
+                span.fail(e);
+                throw e;
+            }
+            span.bytes(Files.size(temporary));
+            Files.move(temporary, zipFile, StandardCopyOption.REPLACE_EXISTING);
+            success = true;
+            System.out.println("Exported " + saves.size() + " saves to " + zipFile);
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    // Add a local save folder, its files are read on the pool
+    private static void addFolder(ZipWriter zip, Path folder, String name) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(folder)) {
+            paths = walk.sorted().toList();
+        }
+        for (Path path : paths) {
+            String relative = folder.relativize(path).toString().replace('\\', '/');
+            String entryName = relative.isEmpty() ? name : name + "/" + relative;
+            long mtime = Files.getLastModifiedTime(path).toMillis();
+            if (Files.isDirectory(path)) {
+                zip.addFolder(entryName, mtime);
+            } else if (Files.isRegularFile(path)) {
+                zip.addFile(entryName, Files.size(path), mtime, () -> Files.readAllBytes(path));
+            }
+        }
+    }
+
+    // Stream the saves of a device into the archive, or pull them into a temporary folder first without tar
+    private static void addAndroidSaves(ZipWriter zip, String device, List<String> folders)
+            throws IOException, InterruptedException {
+        if (AdbTar.isSupported(device)) {
+            Set<String> expected = new HashSet<>(folders);
+            boolean success = AdbTar.pullEntries(device, GetData.ANDROID_SAVES_PATH, folders, -1, (path, data, size, mtime) -> {
+                String name = checkEntryName(path);
+                if (!expected.contains(topFolder(name))) {
+                    throw new IOException("Unexpected tar entry " + path);
+                }
+                long millis = TimeUnit.SECONDS.toMillis(mtime);
+                if (data == null) {
+                    zip.addFolder(name, millis);
+                } else {
+                    // Read here, the device stream can't wait for the pool
+                    byte[] contents = data.readAllBytes();
+                    zip.addFile(name, size, millis, () -> contents);
+                }
+            });
+            if (!success) {
+                throw new IOException("Error reading saves from " + DeviceRegistry.getLabel(device));
+            }
+            return;
+        }
+
+        Path temporary = Files.createTempDirectory("svsm-export");
+        try {
+            for (String folder : folders) {
+                checkCancelled();
+                Path local = temporary.resolve(folder);
+                if (!AdbTransfer.pullFolder(device, GetData.ANDROID_SAVES_PATH + "/" + folder, local, -1)) {
+                    throw new IOException("Error reading " + folder + " from " + DeviceRegistry.getLabel(device));
+                }
+                addFolder(zip, local, folder);
+            }
+            // The pool reads the pulled files until they are written
+            zip.flush();
+        } finally {
+            CopyEngine.deleteRecursively(temporary);
+        }
+    }
+
+    // Import every save of the archive into the game's Saves folder. A save that exists already is kept
+    // as a snapshot in the backup store before it is replaced.
+    public static Result importToSteam(Path zipFile) throws IOException {
+        Path savesDirectory = SaveLocations.getGameSavesPath();
+        if (savesDirectory == null) {
+            throw new IOException("The game's Saves folder can't be located");
+        }
+        Files.createDirectories(savesDirectory);
+
+        List<String> imported = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        try (Metrics.Span span = Metrics.start("archive.import", zipFile.getFileName().toString());
+             ZipFile zip = new ZipFile(zipFile.toFile())) {
+            Map<String, List<ZipEntry>> saves = readSaves(zip, zipFile);
+            long totalBytes = totalSize(saves);
+            long done = 0;
+            for (Map.Entry<String, List<ZipEntry>> save : saves.entrySet()) {
+                checkCancelled();
+                String folder = save.getKey();
+                TaskRunner.progress(folder, totalBytes > 0 ? (double) done / totalBytes : -1);
+                Path destination = savesDirectory.resolve(folder);
+                Path staging = CopyEngine.stagingPath(destination);
+                try {
+                    extract(zip, folder, save.getValue(), staging);
+                    if (Files.isDirectory(destination)) {
+                        BackupStore.getDefault().createSnapshot(savesDirectory, folder);
+                    }
+                    CopyEngine.publish(staging, destination);
+                    imported.add(folder);
+                } catch (IOException e) {
+                    System.err.println("Error importing " + folder + ": " + e.getMessage());
+                    CopyEngine.deleteRecursively(staging);
+                    failed.add(folder);
+                }
+                done += size(save.getValue());
+            }
+            span.bytes(done);
+            if (!failed.isEmpty()) {
+                span.fail(failed.size() + " saves failed");
+            }
+        }
+        return new Result(imported, failed);
+    }
+
+    // Import every save of the archive into a device. With tar the files are streamed out of the zip into one push,
+    // otherwise each save is extracted into a temporary folder and pushed.
+    public static Result importToAndroid(Path zipFile, String device) throws IOException, InterruptedException {
+        try (Metrics.Span span = Metrics.start("archive.import", device);
+             ZipFile zip = new ZipFile(zipFile.toFile())) {
+            Map<String, List<ZipEntry>> saves = readSaves(zip, zipFile);
+            long totalBytes = totalSize(saves);
+            List<String> staged = AdbTar.isSupported(device)
+                    ? streamToDevice(zip, saves, device, totalBytes)
+                    : pushToDevice(zip, saves, device);
+
+            // Each complete save replaces its live copy
+            List<String> imported = new ArrayList<>();
+            List<String> failed = new ArrayList<>(saves.keySet());
+            failed.removeAll(staged);
+            for (String folder : staged) {
+                String remoteFolder = GetData.ANDROID_SAVES_PATH + "/" + folder;
+                if (!TaskRunner.isCancelled() && SaveSync.publishRemote(device, SaveSync.remoteStagingPath(remoteFolder), remoteFolder)) {
+                    imported.add(folder);
+                } else {
+                    failed.add(folder);
+                }
+            }
+            if (!failed.isEmpty()) {
+                removeStaging(device, failed);
+                span.fail(failed.size() + " saves failed");
+            }
+            span.bytes(totalBytes);
+            return new Result(imported, failed);
+        }
+    }
+
+    // One tar stream holding the staging folder of every save, returns the saves that were staged
+    private static List<String> streamToDevice(ZipFile zip, Map<String, List<ZipEntry>> saves, String device, long totalBytes)
+            throws IOException, InterruptedException {
+        removeStaging(device, saves.keySet());
+        boolean success = AdbTar.pushEntries(device, GetData.ANDROID_SAVES_PATH, totalBytes, tar -> {
+            long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            for (Map.Entry<String, List<ZipEntry>> save : saves.entrySet()) {
+                String folder = save.getKey();
+                String staging = stagingName(folder);
+                // Zip tools don't always store folders, tar needs each one before the files in it
+                Set<String> created = new HashSet<>();
+                tar.addFolder(staging, now);
+                created.add("");
+                for (ZipEntry entry : save.getValue()) {
+                    String relative = checkEntryName(entry.getName()).substring(folder.length());
+                    int slash = relative.lastIndexOf('/');
+                    String parent = slash <= 0 ? "" : relative.substring(0, slash);
+                    long mtime = TimeUnit.MILLISECONDS.toSeconds(entry.getTime());
+                    createParents(tar, staging, parent, created, mtime);
+                    if (entry.isDirectory()) {
+                        createParents(tar, staging, relative, created, mtime);
+                    } else {
+                        try (InputStream data = zip.getInputStream(entry)) {
+                            tar.addFile(staging + relative, entry.getSize(), mtime, data);
+                        }
+                    }
+                }
+            }
+        });
+        return success ? new ArrayList<>(saves.keySet()) : List.of();
+    }
+
+    private static void createParents(AdbTar.TarOutput tar, String staging, String folder, Set<String> created, long mtime)
+            throws IOException {
+        if (folder.isEmpty() || created.contains(folder)) {
+            return;
+        }
+        int slash = folder.lastIndexOf('/');
+        createParents(tar, staging, slash <= 0 ? "" : folder.substring(0, slash), created, mtime);
+        tar.addFolder(staging + folder, mtime);
+        created.add(folder);
+    }
+
+    // Without tar each save is extracted and pushed on its own
+    private static List<String> pushToDevice(ZipFile zip, Map<String, List<ZipEntry>> saves, String device)
+            throws IOException, InterruptedException {
+        List<String> staged = new ArrayList<>();
+        Path temporary = Files.createTempDirectory("svsm-import");
+        try {
+            for (Map.Entry<String, List<ZipEntry>> save : saves.entrySet()) {
+                checkCancelled();
+                String folder = save.getKey();
+                Path local = temporary.resolve(folder);
+                extract(zip, folder, save.getValue(), local);
+                String staging = SaveSync.remoteStagingPath(GetData.ANDROID_SAVES_PATH + "/" + folder);
+                if (AdbSession.get(device).run("rm -rf " + AdbSession.quote(staging)).getExitCode() == 0
+                        && AdbTransfer.pushFolder(device, local, staging, size(save.getValue()))) {
+                    staged.add(folder);
+                } else {
+                    System.err.println("Error importing " + folder + " to " + DeviceRegistry.getLabel(device));
+                }
+                CopyEngine.deleteRecursively(local);
+            }
+        } finally {
+            CopyEngine.deleteRecursively(temporary);
+        }
+        return staged;
+    }
+
+    // A cancelled task can't use the shell anymore, its staging folders are removed by the next import
+    private static void removeStaging(String device, Collection<String> folders) {
+        if (TaskRunner.isCancelled() || folders.isEmpty()) {
+            return;
+        }
+        StringBuilder script = new StringBuilder("rm -rf");
+        for (String folder : folders) {
+            script.append(' ').append(AdbSession.quote(SaveSync.remoteStagingPath(GetData.ANDROID_SAVES_PATH + "/" + folder)));
+        }
+        try {
+            AdbSession.get(device).run(script.toString());
+        } catch (IOException e) {
+            System.err.println("Error removing staging folders on " + device + ": " + e.getMessage());
+        }
+    }
+
+    // ".Name_ID.staging", relative to the device's Saves folder
+    private static String stagingName(String folder) {
+        String staging = SaveSync.remoteStagingPath(GetData.ANDROID_SAVES_PATH + "/" + folder);
+        return staging.substring(staging.lastIndexOf('/') + 1);
+    }
+
+    // Extract the entries of one save into a folder that is created first
+    private static void extract(ZipFile zip, String folder, List<ZipEntry> entries, Path destination) throws IOException {
+        CopyEngine.deleteRecursively(destination);
+        Files.createDirectories(destination);
+        for (ZipEntry entry : entries) {
+            String relative = checkEntryName(entry.getName()).substring(folder.length()).replaceFirst("^/", "");
+            Path target = destination.resolve(relative);
+            if (entry.isDirectory()) {
+                Files.createDirectories(target);
+                continue;
+            }
+            Files.createDirectories(target.getParent());
+            try (InputStream input = zip.getInputStream(entry);
+                 OutputStream output = Files.newOutputStream(target)) {
+                input.transferTo(output);
+            }
+            Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getTime()));
+        }
+    }
+
+    // The entries of the archive by save folder, in archive order. Anything that isn't in a save folder
+    // makes the archive invalid, so a wrong file is refused before anything is written.
+    private static Map<String, List<ZipEntry>> readSaves(ZipFile zip, Path zipFile) throws IOException {
+        Map<String, List<ZipEntry>> saves = new LinkedHashMap<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String name = checkEntryName(entry.getName());
+            String folder = topFolder(name);
+            if (SaveInfo.fromFolderName(folder, 0, 0) == null || (!entry.isDirectory() && folder.equals(name))) {
+                throw new IOException(zipFile.getFileName() + " isn't an archive of saves, it holds " + entry.getName());
+            }
+            saves.computeIfAbsent(folder, k -> new ArrayList<>()).add(entry);
+        }
+        if (saves.isEmpty()) {
+            throw new IOException(zipFile.getFileName() + " holds no saves");
+        }
+        return saves;
+    }
+
+    // Entry names use "/" and stay inside their save folder, the trailing "/" of folders is removed
+    private static String checkEntryName(String entryName) throws IOException {
+        String name = entryName.replace('\\', '/');
+        if (name.startsWith("./")) {
+            name = name.substring(2);
+        }
+        if (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        if (name.isEmpty() || name.startsWith("/") || name.contains(":")) {
+            throw new IOException("Unexpected archive entry " + entryName);
+        }
+        for (String part : name.split("/")) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                throw new IOException("Unexpected archive entry " + entryName);
+            }
+        }
+        return name;
+    }
+
+    private static String topFolder(String name) {
+        int slash = name.indexOf('/');
+        return slash == -1 ? name : name.substring(0, slash);
+    }
+
+    private static long size(List<ZipEntry> entries) {
+        long size = 0;
+        for (ZipEntry entry : entries) {
+            size += Math.max(entry.getSize(), 0);
+        }
+        return size;
+    }
+
+    private static long totalSize(Map<String, List<ZipEntry>> saves) {
+        long size = 0;
+        for (List<ZipEntry> entries : saves.values()) {
+            size += size(entries);
+        }
+        return size;
+    }
+
+    private static void checkCancelled() throws IOException {
+        if (TaskRunner.isCancelled() || Thread.currentThread().isInterrupted()) {
+            throw new IOException("Cancelled");
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.axperty.svsm.utils;
+
+import com.axperty.svsm.properties.SetLanguage;
+
+import java.text.NumberFormat;
+
+// Farm details read from a save's SaveGameInfo file
+public class SaveDetails {
+    private static final String[] SEASONS = {"spring", "summer", "fall", "winter"};
+
+    private final String farmerName;
+    private final String farmName;
+    private final int day;
+    private final int season;
+    private final int year;
+    private final long money;
+    private final long millisecondsPlayed;
+
+    public SaveDetails(String farmerName, String farmName, int day, int season, int year, long money, long millisecondsPlayed) {
+        this.farmerName = farmerName;
+        this.farmName = farmName;
+        this.day = day;
+        this.season = season;
+        this.year = year;
+        this.money = money;
+        this.millisecondsPlayed = millisecondsPlayed;
+    }
+
+    public String getFarmerName() {
+        return farmerName;
+    }
+
+    public String getFarmName() {
+        return farmName;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    // 0 for spring to 3 for winter
+    public int getSeason() {
+        return season;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public long getMoney() {
+        return money;
+    }
+
+    public long getMillisecondsPlayed() {
+        return millisecondsPlayed;
+    }
+
+    // e.g. "Spring 5, Year 2"
+    public String getGameDate() {
+        if (day <= 0 || season < 0 || season >= SEASONS.length) {
+            return "";
+        }
+        String seasonName = SetLanguage.getBundle().getString("season." + SEASONS[season]);
+        return seasonName + " " + day + ", " + SetLanguage.getBundle().getString("table.year") + " " + year;
+    }
+
+    // e.g. "12,345g"
+    public String getFormattedMoney() {
+        return NumberFormat.getIntegerInstance().format(money) + "g";
+    }
+
+    // e.g. "12h 05m"
+    public String getFormattedPlayTime() {
+        long minutes = millisecondsPlayed / 60000;
+        return String.format("%dh %02dm", minutes / 60, minutes % 60);
+    }
+}
@@ -0,0 +1,131 @@
+package com.axperty.svsm.utils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Streaming reader for the SaveGameInfo file of a save.
+// Only the fields shown in the tables are read, and parsing stops as soon as all of them were seen,
+// so large files are never loaded completely.
+public class SaveGameInfoReader {
+    public static final String FILE_NAME = "SaveGameInfo";
+
+    // Fields are direct children of the root <Farmer> element, nested elements reuse some of the names
+    private static final int FIELD_DEPTH = 2;
+    private static final int FIELD_COUNT = 7;
+
+    private static final XMLInputFactory factory = createFactory();
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    // Read the details of a local save folder, returns null if they can't be read
+    public static SaveDetails read(Path saveFolder) {
+        Path file = saveFolder.resolve(FILE_NAME);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (Metrics.Span span = Metrics.start("parse.savegameinfo", saveFolder.getFileName().toString());
+             InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+            try {
+                return read(factory.createXMLStreamReader(input));
+            } catch (XMLStreamException e) {
+                span.fail(e);
+                throw e;
+            }
+        } catch (IOException | XMLStreamException e) {
+            System.err.println("Error reading " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Read details from a SaveGameInfo document, returns null if they can't be read
+    public static SaveDetails read(Reader input) {
+        try {
+            return read(factory.createXMLStreamReader(input));
+        } catch (XMLStreamException e) {
+            System.err.println("Error reading save details: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // The XMLInputFactory is thread safe once configured, so saves can be parsed in parallel
+    private static SaveDetails read(XMLStreamReader reader) throws XMLStreamException {
+        String farmerName = null;
+        String farmName = null;
+        int day = 0;
+        int season = -1;
+        int year = 0;
+        long money = 0;
+        long millisecondsPlayed = 0;
+
+        int depth = 0;
+        int found = 0;
+        try {
+            while (reader.hasNext() && found < FIELD_COUNT) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                depth++;
+                if (depth != FIELD_DEPTH) {
+                    continue;
+                }
+
+                String field = reader.getLocalName();
+                switch (field) {
+                    case "name", "farmName", "money", "millisecondsPlayed",
+                         "dayOfMonthForSaveGame", "seasonForSaveGame", "yearForSaveGame" -> {
+                        // getElementText() consumes the end tag as well
+                        String text = reader.getElementText().trim();
+                        depth--;
+                        found++;
+                        switch (field) {
+                            case "name" -> farmerName = text;
+                            case "farmName" -> farmName = text;
+                            case "money" -> money = parseLong(text);
+                            case "millisecondsPlayed" -> millisecondsPlayed = parseLong(text);
+                            case "dayOfMonthForSaveGame" -> day = (int) parseLong(text);
+                            case "seasonForSaveGame" -> season = (int) parseLong(text);
+                            default -> year = (int) parseLong(text);
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (farmerName == null && farmName == null) {
+            return null;
+        }
+        return new SaveDetails(farmerName, farmName, day, season, year, money, millisecondsPlayed);
+    }
+
+    private static long parseLong(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.axperty.svsm.utils;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+public class SaveInfo {
+    private final String saveName;
+    private final String saveId;
+    private final long lastModified; // Milliseconds since epoch, -1 if unknown
+    private final long sizeBytes;    // Total size of the save folder, -1 if unknown
+    private final int fileCount;     // Number of files in the save folder, -1 if unknown
+    private final SaveDetails details; // Parsed SaveGameInfo, null if not read yet
+    private final String device;       // Serial of the Android device the save is on, null for Steam saves
+    private final boolean stale;       // Shown from the listing cache, not confirmed by a scan yet
+    private final String location;     // Name of the save location a local save is in, null for the game's Saves folder
+
+    public SaveInfo(String saveName, String saveId, long lastModified, long sizeBytes) {
+        this(saveName, saveId, lastModified, sizeBytes, null, null);
+    }
+
+    public SaveInfo(String saveName, String saveId, long lastModified, long sizeBytes, SaveDetails details, String device) {
+        this(saveName, saveId, lastModified, sizeBytes, -1, details, device);
+    }
+
+    public SaveInfo(String saveName, String saveId, long lastModified, long sizeBytes, int fileCount,
+                    SaveDetails details, String device) {
+        this(saveName, saveId, lastModified, sizeBytes, fileCount, details, device, false, null);
+    }
+
+    private SaveInfo(String saveName, String saveId, long lastModified, long sizeBytes, int fileCount,
+                     SaveDetails details, String device, boolean stale, String location) {
+        this.saveName = saveName;
+        this.saveId = saveId;
+        this.lastModified = lastModified;
+        this.sizeBytes = sizeBytes;
+        this.fileCount = fileCount;
+        this.details = details;
+        this.device = device;
+        this.stale = stale;
+        this.location = location;
+    }
+
+    public SaveInfo withDetails(SaveDetails details) {
+        return new SaveInfo(saveName, saveId, lastModified, sizeBytes, fileCount, details, device, stale, location);
+    }
+
+    public SaveInfo withDevice(String device) {
+        return new SaveInfo(saveName, saveId, lastModified, sizeBytes, fileCount, details, device, stale, location);
+    }
+
+    public SaveInfo withUsage(DiskUsage.Usage usage) {
+        return new SaveInfo(saveName, saveId, lastModified, usage.bytes(), usage.files(), details, device, stale, location);
+    }
+
+    public SaveInfo withStale(boolean stale) {
+        return new SaveInfo(saveName, saveId, lastModified, sizeBytes, fileCount, details, device, stale, location);
+    }
+
+    public SaveInfo withLocation(String location) {
+        return new SaveInfo(saveName, saveId, lastModified, sizeBytes, fileCount, details, device, stale, location);
+    }
+
+    // Parse a save folder name like "Name_123456789", returns null if it isn't a save folder.
+    // Hidden folders are staging copies and never count as saves.
+    public static SaveInfo fromFolderName(String folderName, long lastModified, long sizeBytes) {
+        if (folderName.startsWith(".")) {
+            return null;
+        }
+        String[] parts = folderName.split("_");
+        if (parts.length != 2) {
+            return null;
+        }
+        return new SaveInfo(parts[0], parts[1], lastModified, sizeBytes);
+    }
+
+    public String getSaveName() {
+        return saveName;
+    }
+
+    public String getSaveId() {
+        return saveId;
+    }
+
+    public String getFolderName() {
+        return saveName + "_" + saveId;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public SaveDetails getDetails() {
+        return details;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public String getLastPlayed() {
+        if (lastModified < 0) {
+            return "N/A";
+        }
+        return new SimpleDateFormat("MM/dd/yyyy").format(new Date(lastModified));
+    }
+
+    // Row as displayed in the tables, details columns are empty until the SaveGameInfo was read.
+    // Android saves have an extra column with the device they are on.
+    public String[] toRow() {
+        String[] row = (details == null)
+                ? new String[]{saveName + " Farm", saveId, getLastPlayed(), "", "", "", "", ""}
+                : new String[]{saveName + " Farm", saveId, getLastPlayed(),
+                details.getFarmerName(), details.getFarmName(), details.getGameDate(),
+                details.getFormattedMoney(), details.getFormattedPlayTime()};
+        if (device == null) {
+            return row;
+        }
+        String[] withDevice = Arrays.copyOf(row, row.length + 1);
+        withDevice[row.length] = DeviceRegistry.getLabel(device);
+        return withDevice;
+    }
+}
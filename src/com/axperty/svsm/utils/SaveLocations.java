@@ -0,0 +1,209 @@
+package com.axperty.svsm.utils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// The local folders saves are listed from. The first is the game's own Saves folder, where saves moved from
+// Android go, which is watched for changes and snapshotted by the automatic backup. Other folders, e.g. a shared
+// save archive or a network mount, are listed next to it with their name in the Source column.
+//
+// -Dsvsm.steamSaves=<folder> replaces the game's Saves folder.
+// -Dsvsm.saveRoots adds folders, separated like the class path (";" on Windows, ":" elsewhere),
+// each one optionally named as "Name=folder", e.g. -Dsvsm.saveRoots="Archive=/mnt/share/saves:/home/me/old".
+// Every folder is scanned on its own thread, one that takes longer than -Dsvsm.rootTimeout seconds (10 by default)
+// is left behind, so a slow mount can't hold up the list.
+public class SaveLocations {
+    private static final long DEFAULT_TIMEOUT_SECONDS = 10;
+
+    // Scans left behind by a timeout may never return, so they run on their own daemon threads
+    private static final ExecutorService executor = Executors.newCachedThreadPool(
+            Thread.ofPlatform().daemon().name("svsm-location-scan-", 0).factory());
+
+    private static List<Location> locations;
+
+    // A folder of save folders, name is null for the game's Saves folder
+    public record Location(String name, Path path) {
+        public boolean isGameFolder() {
+            return name == null;
+        }
+    }
+
+    // Scans the saves of one location, passing each one to the consumer
+    public interface LocationScan {
+        void scan(Location location, Consumer<SaveInfo> consumer) throws Exception;
+    }
+
+    // Get the game's Saves folder, or null if it can't be located
+    public static Path getGameSavesPath() {
+        String override = System.getProperty("svsm.steamSaves");
+        if (override != null) {
+            return Paths.get(override);
+        }
+
+        if (System.getProperty("os.name", "").toLowerCase().startsWith("windows")) {
+            // Get the Steam user's AppData path
+            String appDataPath = System.getenv("APPDATA");
+            if (appDataPath == null) {
+                System.err.println("Error: Unable to get APPDATA environment variable.");
+                return null;
+            }
+            return Paths.get(appDataPath, "StardewValley", "Saves");
+        }
+
+        // Linux, the Steam Deck and macOS keep the saves in the config folder, Steam installed with Flatpak in its own
+        Path home = Paths.get(System.getProperty("user.home"));
+        String configHome = System.getenv("XDG_CONFIG_HOME");
+        Path config = (configHome == null || configHome.isEmpty()) ? home.resolve(".config") : Paths.get(configHome);
+        Path saves = config.resolve("StardewValley").resolve("Saves");
+        Path flatpak = home.resolve(".var/app/com.valvesoftware.Steam/.config/StardewValley/Saves");
+        return (!Files.isDirectory(saves) && Files.isDirectory(flatpak)) ? flatpak : saves;
+    }
+
+    // Every location, the game's Saves folder first if it was found
+    public static synchronized List<Location> getLocations() {
+        if (locations == null) {
+            List<Location> found = new ArrayList<>();
+            Path gameSaves = getGameSavesPath();
+            if (gameSaves != null) {
+                found.add(new Location(null, gameSaves));
+            }
+            String roots = System.getProperty("svsm.saveRoots", "");
+            for (String root : roots.split(File.pathSeparator)) {
+                Location location = parseRoot(root.trim(), found);
+                if (location != null) {
+                    found.add(location);
+                }
+            }
+            locations = List.copyOf(found);
+        }
+        return locations;
+    }
+
+    // "Name=folder" or just "folder", named after the folder (or the one holding it, for a "Saves" folder)
+    private static Location parseRoot(String root, List<Location> existing) {
+        if (root.isEmpty()) {
+            return null;
+        }
+        int equals = root.indexOf('=');
+        String name = equals > 0 ? root.substring(0, equals).trim() : null;
+        Path path = Paths.get(equals > 0 ? root.substring(equals + 1).trim() : root).toAbsolutePath().normalize();
+        for (Location location : existing) {
+            if (location.path().equals(path)) {
+                System.err.println("Ignoring save location " + path + ", it is listed already.");
+                return null;
+            }
+        }
+        if (name == null || name.isEmpty()) {
+            Path named = (path.getFileName() != null && path.getFileName().toString().equalsIgnoreCase("Saves")
+                    && path.getParent() != null && path.getParent().getFileName() != null) ? path.getParent() : path;
+            name = named.getFileName() != null ? named.getFileName().toString() : path.toString();
+        }
+
+        // Names tell the rows apart, so they have to be unique
+        String unique = name;
+        for (int i = 2; get(existing, unique) != null; i++) {
+            unique = name + " (" + i + ")";
+        }
+        return new Location(unique, path);
+    }
+
+    // The location with the given name, null for the game's Saves folder
+    public static Location get(String name) {
+        return get(getLocations(), name);
+    }
+
+    private static Location get(List<Location> locations, String name) {
+        for (Location location : locations) {
+            if (Objects.equals(location.name(), name)) {
+                return location;
+            }
+        }
+        return null;
+    }
+
+    // True if other folders than the game's Saves folder are listed
+    public static boolean hasOtherLocations() {
+        return getLocations().stream().anyMatch(location -> !location.isGameFolder());
+    }
+
+    // Folder of a local save, null for an Android save or one in a location that isn't configured anymore
+    public static Path resolve(SaveInfo save) {
+        if (save.getDevice() != null) {
+            return null;
+        }
+        Location location = get(save.getLocation());
+        return location == null ? null : location.path().resolve(save.getFolderName());
+    }
+
+    // List the saves of one location, each one tagged with the location it is in
+    public static void scan(Location location, Consumer<SaveInfo> consumer, boolean withDetails) {
+        if (!Files.isDirectory(location.path())) {
+            System.err.println("Save location " + location.path() + " isn't available.");
+            return;
+        }
+        GetData.scanSteamSaves(location.path(), save -> consumer.accept(save.withLocation(location.name())), withDetails);
+    }
+
+    // List the saves of every location at the same time, passing each one to the consumer as soon as it is found.
+    // The consumer must be thread safe. Returns the locations that didn't finish in time.
+    public static List<Location> scan(Consumer<SaveInfo> consumer, boolean withDetails) {
+        return scanEach(getLocations(), (location, found) -> scan(location, found, withDetails), consumer);
+    }
+
+    // Run the scan of each location on its own thread, waiting at most the timeout for all of them.
+    // Saves a location finds after its timeout aren't passed on. Returns the locations that didn't finish in time.
+    public static List<Location> scanEach(Collection<Location> locations, LocationScan scan, Consumer<SaveInfo> consumer) {
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(Long.getLong("svsm.rootTimeout", DEFAULT_TIMEOUT_SECONDS));
+        long deadline = System.nanoTime() + timeoutNanos;
+        Map<Location, Future<?>> scans = new LinkedHashMap<>();
+        Map<Location, AtomicBoolean> open = new LinkedHashMap<>();
+        for (Location location : locations) {
+            AtomicBoolean accepting = new AtomicBoolean(true);
+            open.put(location, accepting);
+            scans.put(location, executor.submit(() -> {
+                scan.scan(location, save -> {
+                    if (accepting.get()) {
+                        consumer.accept(save);
+                    }
+                });
+                return null;
+            }));
+        }
+
+        List<Location> late = new ArrayList<>();
+        for (Map.Entry<Location, Future<?>> entry : scans.entrySet()) {
+            Location location = entry.getKey();
+            try {
+                entry.getValue().get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                open.get(location).set(false);
+                late.add(location);
+                Metrics.count("scan.location_timeout", 1);
+                System.err.println("Save location " + location.path() + " didn't answer in time, skipping it.");
+            } catch (ExecutionException e) {
+                System.err.println("Error scanning save location " + location.path() + ": " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                open.values().forEach(accepting -> accepting.set(false));
+                late.add(location);
+            }
+        }
+        return late;
+    }
+}
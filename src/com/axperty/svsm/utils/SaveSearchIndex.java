@@ -0,0 +1,149 @@
+package com.axperty.svsm.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+// Search index over the saves of a table: save name, ID, farmer and farm name.
+// Every lowercase 3-character sequence points to the rows containing it, so a query only checks
+// the rows that contain all of its trigrams instead of matching every row.
+// Built from an immutable snapshot of the saves, so it can be built and queried on any thread.
+public class SaveSearchIndex {
+    private final String[] documents;
+    private final Map<Long, int[]> trigrams;
+
+    public SaveSearchIndex(List<SaveInfo> saves) {
+        documents = new String[saves.size()];
+        Map<Long, IntList> postings = new HashMap<>();
+        for (int row = 0; row < documents.length; row++) {
+            documents[row] = toDocument(saves.get(row));
+            for (long trigram : trigramsOf(documents[row])) {
+                postings.computeIfAbsent(trigram, k -> new IntList()).add(row);
+            }
+        }
+
+        trigrams = new HashMap<>(postings.size() * 2);
+        postings.forEach((trigram, rows) -> trigrams.put(trigram, rows.toArray()));
+    }
+
+    public int size() {
+        return documents.length;
+    }
+
+    // Rows containing the text, case insensitive
+    public BitSet find(String text) {
+        String query = text.toLowerCase(Locale.ROOT);
+        BitSet matches = new BitSet(documents.length);
+        if (query.length() < 3) {
+            // Too short for the index, a plain scan is still only a few microseconds per thousand rows
+            for (int row = 0; row < documents.length; row++) {
+                if (documents[row].contains(query)) {
+                    matches.set(row);
+                }
+            }
+            return matches;
+        }
+
+        // Start with the rarest trigram, then keep the rows that have every other one
+        List<int[]> lists = new ArrayList<>();
+        for (long trigram : trigramsOf(query)) {
+            int[] rows = trigrams.get(trigram);
+            if (rows == null) {
+                return matches;
+            }
+            lists.add(rows);
+        }
+        lists.sort((a, b) -> Integer.compare(a.length, b.length));
+        int[] candidates = lists.get(0);
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = intersect(candidates, lists.get(i));
+        }
+
+        // Trigrams can match out of order, so the candidates are checked
+        for (int row : candidates) {
+            if (documents[row].contains(query)) {
+                matches.set(row);
+            }
+        }
+        return matches;
+    }
+
+    // Rows matching a regular expression anywhere, case insensitive
+    public BitSet find(Pattern pattern) {
+        BitSet matches = new BitSet(documents.length);
+        for (int row = 0; row < documents.length; row++) {
+            if (pattern.matcher(documents[row]).find()) {
+                matches.set(row);
+            }
+        }
+        return matches;
+    }
+
+    // Searchable text of a save, fields are separated so a query can't match across two of them
+    private static String toDocument(SaveInfo save) {
+        StringBuilder document = new StringBuilder()
+                .append(save.getSaveName()).append(" farm").append('\n')
+                .append(save.getSaveId());
+        SaveDetails details = save.getDetails();
+        if (details != null) {
+            document.append('\n').append(details.getFarmerName()).append('\n').append(details.getFarmName());
+        }
+        return document.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<Long> trigramsOf(String text) {
+        Set<Long> result = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            result.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return result;
+    }
+
+    // Both lists are sorted, as rows are added in order
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // Growable int array, avoids boxing every row number
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        void add(int value) {
+            // A row is only added once per trigram
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
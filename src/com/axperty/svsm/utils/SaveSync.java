@@ -0,0 +1,490 @@
+package com.axperty.svsm.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Compares a save folder on Steam and on the device and transfers only the files that changed.
+// Device side sizes and hashes are read with a single remote command.
+// Transfers never write into the live save: the new copy is built in a staging folder next to it
+// (on the device for a push), checked against the source hashes, and only then swapped in.
+public class SaveSync {
+    // Separates the "stat" and "sha1sum" sections of the remote manifest output
+    private static final String MANIFEST_SEPARATOR = "---";
+
+    // Folders next to a device save while it is replaced, like CopyEngine's local ones
+    private static final String STAGING_SUFFIX = ".staging";
+    private static final String PREVIOUS_SUFFIX = ".previous";
+
+    // Size and hash of a file in a save folder, hash is null if it wasn't needed
+    private static class FileState {
+        final long size;
+        final String hash;
+
+        FileState(long size, String hash) {
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    // What a sync would do, computed without changing anything
+    public static class Plan {
+        private final String device;
+        private final Path localFolder;
+        private final String remoteFolder;
+        private final boolean toDevice;
+        private final boolean fullCopy;
+        private final List<String> toCopy = new ArrayList<>();
+        private final Map<String, Long> copySizes = new HashMap<>();
+        private final List<String> toDelete = new ArrayList<>();
+        private Map<String, FileState> source;
+        private int unchanged = 0;
+        private long bytesToCopy = 0;
+
+        private Plan(String device, Path localFolder, String remoteFolder, boolean toDevice, boolean fullCopy) {
+            this.device = device;
+            this.localFolder = localFolder;
+            this.remoteFolder = remoteFolder;
+            this.toDevice = toDevice;
+            this.fullCopy = fullCopy;
+        }
+
+        // Serial of the device on the Android side
+        public String getDevice() {
+            return device;
+        }
+
+        public Path getLocalFolder() {
+            return localFolder;
+        }
+
+        public String getRemoteFolder() {
+            return remoteFolder;
+        }
+
+        public boolean isToDevice() {
+            return toDevice;
+        }
+
+        // True if the destination doesn't exist yet, so the whole folder is transferred
+        public boolean isFullCopy() {
+            return fullCopy;
+        }
+
+        public List<String> getFilesToCopy() {
+            return toCopy;
+        }
+
+        public List<String> getFilesToDelete() {
+            return toDelete;
+        }
+
+        public long getBytesToCopy() {
+            return bytesToCopy;
+        }
+
+        // Files that are the same on both sides
+        public int getUnchangedCount() {
+            return unchanged;
+        }
+
+        public boolean isEmpty() {
+            return !fullCopy && toCopy.isEmpty() && toDelete.isEmpty();
+        }
+
+        private void addCopy(String file, long size) {
+            toCopy.add(file);
+            copySizes.put(file, size);
+            bytesToCopy += size;
+        }
+
+        // Dry-run summary for the command line and logs, e.g. "2 files to copy (1.2 MB), 1 to delete, 3 unchanged"
+        public String getSummary() {
+            if (fullCopy) {
+                return "Full copy: " + toCopy.size() + " files (" + formatSize(bytesToCopy) + ")";
+            }
+            return toCopy.size() + " files to copy (" + formatSize(bytesToCopy) + "), "
+                    + toDelete.size() + " to delete, " + unchanged + " unchanged";
+        }
+    }
+
+    // Plan copying a Steam save folder to a device
+    public static Plan planToDevice(String device, Path localFolder, String remoteFolder) throws IOException {
+        return plan(device, localFolder, remoteFolder, true);
+    }
+
+    // Plan copying a device save folder to Steam
+    public static Plan planToSteam(String device, String remoteFolder, Path localFolder) throws IOException {
+        return plan(device, localFolder, remoteFolder, false);
+    }
+
+    private static Plan plan(String device, Path localFolder, String remoteFolder, boolean toDevice) throws IOException {
+        Map<String, FileState> remote = readRemoteManifest(device, remoteFolder);
+        Map<String, FileState> local = readLocalSizes(localFolder);
+        Map<String, FileState> source = toDevice ? local : remote;
+        Map<String, FileState> destination = toDevice ? remote : local;
+        if (source == null) {
+            throw new IOException("Source save folder not found: " + (toDevice ? localFolder : remoteFolder));
+        }
+
+        Plan plan = new Plan(device, localFolder, remoteFolder, toDevice, destination == null);
+        plan.source = source;
+        if (destination == null) {
+            source.forEach((file, state) -> plan.addCopy(file, state.size));
+            return plan;
+        }
+
+        // Only hash local files whose size matches the other side, a different size means the file changed
+        List<String> sameSize = new ArrayList<>();
+        for (Map.Entry<String, FileState> entry : source.entrySet()) {
+            FileState other = destination.get(entry.getKey());
+            if (other != null && other.size == entry.getValue().size) {
+                sameSize.add(entry.getKey());
+            }
+        }
+        Map<String, String> localHashes = hashLocalFiles(localFolder, sameSize);
+
+        for (Map.Entry<String, FileState> entry : source.entrySet()) {
+            String file = entry.getKey();
+            FileState remoteState = remote.get(file);
+            String localHash = localHashes.get(file);
+            if (localHash != null && remoteState != null && localHash.equalsIgnoreCase(remoteState.hash)) {
+                plan.unchanged++;
+            } else {
+                plan.addCopy(file, entry.getValue().size);
+            }
+        }
+        for (String file : destination.keySet()) {
+            if (!source.containsKey(file)) {
+                plan.toDelete.add(file);
+            }
+        }
+        return plan;
+    }
+
+    // Apply a plan: the new copy is staged next to the destination, verified and then swapped with the
+    // existing one. A Steam save being replaced is snapshotted in the backup store first.
+    // A failed or cancelled transfer leaves the destination as it was.
+    public static boolean apply(Plan plan) throws IOException, InterruptedException {
+        if (plan.isEmpty()) {
+            return true;
+        }
+        return plan.toDevice ? applyToDevice(plan) : applyToSteam(plan);
+    }
+
+    private static boolean applyToSteam(Plan plan) throws IOException, InterruptedException {
+        Path staging = CopyEngine.stagingPath(plan.localFolder);
+        CopyEngine.deleteRecursively(staging);
+        Files.createDirectories(staging.getParent());
+        boolean success = false;
+        try {
+            if (plan.fullCopy) {
+                success = AdbTransfer.pullFolder(plan.device, plan.remoteFolder, staging, plan.bytesToCopy);
+            } else {
+                // Unchanged files are linked, changed ones don't exist in the staging folder so a pull never
+                // writes through a link into the live save
+                Set<String> skipped = new HashSet<>(plan.toCopy);
+                skipped.addAll(plan.toDelete);
+                for (String file : readLocalSizes(plan.localFolder).keySet()) {
+                    if (!skipped.contains(file)) {
+                        Path target = staging.resolve(file);
+                        Files.createDirectories(target.getParent());
+                        CopyEngine.linkFile(plan.localFolder.resolve(file), target);
+                    }
+                }
+                success = transferChangedFiles(plan, staging.toString());
+            }
+            success = success && verifyLocal(plan, staging);
+            if (!success) {
+                return false;
+            }
+
+            // Keep the copy being replaced, unchanged chunks are already in the store so this is quick
+            if (Files.isDirectory(plan.localFolder)) {
+                BackupStore.getDefault().createSnapshot(plan.localFolder.getParent(), plan.localFolder.getFileName().toString());
+            }
+            CopyEngine.publish(staging, plan.localFolder);
+            return true;
+        } finally {
+            if (!success) {
+                CopyEngine.deleteRecursively(staging);
+            }
+        }
+    }
+
+    private static boolean applyToDevice(Plan plan) throws IOException, InterruptedException {
+        String staging = remoteStagingPath(plan.remoteFolder);
+        AdbSession session = AdbSession.get(plan.device);
+
+        // The device has no hard links, so a partial sync starts from a device-side copy of the save
+        String prepare = "rm -rf " + AdbSession.quote(staging) + " && " + (plan.fullCopy
+                ? "mkdir -p " + AdbSession.quote(plan.remoteFolder.substring(0, plan.remoteFolder.lastIndexOf('/')))
+                : "cp -R -p " + AdbSession.quote(plan.remoteFolder) + " " + AdbSession.quote(staging));
+        boolean success = false;
+        try {
+            if (session.run(prepare).getExitCode() != 0) {
+                System.err.println("Error preparing " + staging + " on " + plan.device);
+                return false;
+            }
+            if (plan.fullCopy) {
+                success = AdbTransfer.pushFolder(plan.device, plan.localFolder, staging, plan.bytesToCopy);
+            } else {
+                StringBuilder remove = new StringBuilder("rm -f");
+                for (String file : plan.toDelete) {
+                    remove.append(' ').append(AdbSession.quote(remotePath(staging, file)));
+                }
+                success = (plan.toDelete.isEmpty() || session.run(remove.toString()).getExitCode() == 0)
+                        && transferChangedFiles(plan, staging);
+            }
+            success = success && verifyRemote(plan, staging);
+            if (!success) {
+                return false;
+            }
+
+            success = publishRemote(plan.device, staging, plan.remoteFolder);
+            return success;
+        } finally {
+            // A cancelled task can't use the shell anymore, its staging folder is removed by the next transfer
+            if (!success && !TaskRunner.isCancelled()) {
+                try {
+                    AdbSession.get(plan.device).run("rm -rf " + AdbSession.quote(staging));
+                } catch (IOException e) {
+                    System.err.println("Error removing " + staging + " on " + plan.device + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Move a complete staging folder on the device into place, in one command. A previous copy left by an
+    // interrupted swap is put back first, and the existing save is only deleted once the new one is in place.
+    static boolean publishRemote(String device, String staging, String remoteFolder) throws IOException {
+        String live = AdbSession.quote(remoteFolder);
+        String old = AdbSession.quote(remoteSibling(remoteFolder, PREVIOUS_SUFFIX));
+        String swap = "{ [ -e " + live + " ] || [ ! -e " + old + " ] || mv " + old + " " + live + "; }"
+                + " && rm -rf " + old
+                + " && { [ ! -e " + live + " ] || mv " + live + " " + old + "; }"
+                + " && { mv " + AdbSession.quote(staging) + " " + live
+                + " || { [ ! -e " + old + " ] || mv " + old + " " + live + "; false; }; }"
+                + " && { rm -rf " + old + "; true; }";
+        boolean success = AdbSession.get(device).run(swap).getExitCode() == 0;
+        if (!success) {
+            System.err.println("Error replacing " + remoteFolder + " on " + device);
+        }
+        return success;
+    }
+
+    // The folder a device save is built in before it replaces the live one
+    static String remoteStagingPath(String remoteFolder) {
+        return remoteSibling(remoteFolder, STAGING_SUFFIX);
+    }
+
+    // Transfer the changed files of a plan into the staging folder (a local path or a device path)
+    private static boolean transferChangedFiles(Plan plan, String staging) throws IOException, InterruptedException {
+        // Group files by folder so each folder is transferred with a single push/pull
+        Map<String, List<String>> byFolder = new LinkedHashMap<>();
+        for (String file : plan.toCopy) {
+            int slash = file.lastIndexOf('/');
+            byFolder.computeIfAbsent(slash == -1 ? "" : file.substring(0, slash), k -> new ArrayList<>()).add(file);
+        }
+
+        if (plan.toDevice) {
+            StringBuilder script = new StringBuilder("mkdir -p");
+            for (String folder : byFolder.keySet()) {
+                script.append(' ').append(AdbSession.quote(remotePath(staging, folder)));
+            }
+            if (AdbSession.get(plan.device).run(script.toString()).getExitCode() != 0) {
+                return false;
+            }
+        } else {
+            for (String folder : byFolder.keySet()) {
+                Files.createDirectories(Path.of(staging).resolve(folder));
+            }
+        }
+
+        for (Map.Entry<String, List<String>> folder : byFolder.entrySet()) {
+            List<String> sources = new ArrayList<>();
+            long bytes = 0;
+            for (String file : folder.getValue()) {
+                sources.add(plan.toDevice ? plan.localFolder.resolve(file).toString() : remotePath(plan.remoteFolder, file));
+                bytes += plan.copySizes.getOrDefault(file, 0L);
+            }
+
+            // The staging folder already holds the unchanged files, so only adb's own progress can be followed
+            boolean success = plan.toDevice
+                    ? AdbTransfer.push(plan.device, sources, remotePath(staging, folder.getKey()) + "/", bytes, null)
+                    : AdbTransfer.pull(plan.device, sources, Path.of(staging).resolve(folder.getKey()), bytes, null);
+            if (!success) {
+                System.err.println("Error syncing " + folder.getValue());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Check a pulled staging folder against the device's sizes and hashes
+    private static boolean verifyLocal(Plan plan, Path staging) throws IOException {
+        try (Metrics.Span span = Metrics.start("sync.verify", plan.localFolder.getFileName().toString())) {
+            Map<String, FileState> staged = readLocalSizes(staging);
+            Map<String, String> hashes = hashLocalFiles(staging, new ArrayList<>(staged.keySet()));
+            String error = compare(plan.source, staged, hashes);
+            if (error != null) {
+                span.fail(error);
+                System.err.println("Verification of " + staging + " failed: " + error);
+            }
+            return error == null;
+        }
+    }
+
+    // Check a pushed staging folder against the local sizes and hashes, the device hashes it with one command
+    private static boolean verifyRemote(Plan plan, String staging) throws IOException {
+        try (Metrics.Span span = Metrics.start("sync.verify", plan.device)) {
+            Map<String, FileState> staged = readRemoteManifest(plan.device, staging);
+            Map<String, String> hashes = hashLocalFiles(plan.localFolder, new ArrayList<>(plan.source.keySet()));
+            Map<String, FileState> expected = new LinkedHashMap<>();
+            plan.source.forEach((file, state) -> expected.put(file, new FileState(state.size, hashes.get(file))));
+            Map<String, String> stagedHashes = new HashMap<>();
+            if (staged != null) {
+                staged.forEach((file, state) -> stagedHashes.put(file, state.hash));
+            }
+            String error = (staged == null) ? "staging folder missing" : compare(expected, staged, stagedHashes);
+            if (error != null) {
+                span.fail(error);
+                System.err.println("Verification of " + staging + " on " + plan.device + " failed: " + error);
+            }
+            return error == null;
+        }
+    }
+
+    // The first difference between the expected files and the staged ones, null if they match
+    private static String compare(Map<String, FileState> expected, Map<String, FileState> staged, Map<String, String> stagedHashes) {
+        if (!expected.keySet().equals(staged.keySet())) {
+            return "expected " + expected.size() + " files, found " + staged.size();
+        }
+        for (Map.Entry<String, FileState> entry : expected.entrySet()) {
+            String file = entry.getKey();
+            FileState state = entry.getValue();
+            if (state.size != staged.get(file).size) {
+                return file + " has the wrong size";
+            }
+            // Without sha1sum on the device only the sizes can be compared
+            String hash = stagedHashes.get(file);
+            if (state.hash != null && hash != null && !state.hash.equalsIgnoreCase(hash)) {
+                return file + " has the wrong hash";
+            }
+        }
+        return null;
+    }
+
+    // Read sizes and SHA-1 hashes of every file in a device folder with one command, null if the folder doesn't exist
+    private static Map<String, FileState> readRemoteManifest(String device, String remoteFolder) throws IOException {
+        String script = "cd " + AdbSession.quote(remoteFolder) + " && find . -type f -exec stat -c '%s %n' {} + && echo "
+                + MANIFEST_SEPARATOR + " && find . -type f -exec sha1sum {} +";
+        Map<String, Long> sizes = new HashMap<>();
+        Map<String, FileState> manifest = new LinkedHashMap<>();
+        boolean[] hashSection = {false};
+        int exitCode = AdbSession.get(device).stream(script, line -> {
+            if (line.equals(MANIFEST_SEPARATOR)) {
+                hashSection[0] = true;
+                return;
+            }
+            String[] fields = line.trim().split("\\s+", 2);
+            if (fields.length != 2 || !fields[1].startsWith("./")) {
+                return;
+            }
+            String file = fields[1].substring(2);
+            if (hashSection[0]) {
+                manifest.put(file, new FileState(sizes.getOrDefault(file, -1L), fields[0]));
+            } else {
+                try {
+                    sizes.put(file, Long.parseLong(fields[0]));
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping unexpected manifest line: " + line);
+                }
+            }
+        });
+
+        if (exitCode != 0 && !hashSection[0]) {
+            // The folder doesn't exist on the device
+            return null;
+        }
+        // Files whose hash couldn't be computed are always copied
+        sizes.forEach((file, size) -> manifest.putIfAbsent(file, new FileState(size, null)));
+        return manifest;
+    }
+
+    // Read sizes of every file in a local folder, null if the folder doesn't exist
+    private static Map<String, FileState> readLocalSizes(Path folder) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return null;
+        }
+        Map<String, FileState> sizes = new LinkedHashMap<>();
+        try (Stream<Path> files = Files.walk(folder)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                String relative = folder.relativize(file).toString().replace('\\', '/');
+                sizes.put(relative, new FileState(Files.size(file), null));
+            }
+        }
+        return sizes;
+    }
+
+    // Hash local files in parallel
+    private static Map<String, String> hashLocalFiles(Path folder, List<String> files) {
+        Map<String, String> hashes = new ConcurrentHashMap<>();
+        files.parallelStream().forEach(file -> {
+            try {
+                hashes.put(file, sha1(folder.resolve(file)));
+            } catch (IOException e) {
+                System.err.println("Error hashing " + file + ": " + e.getMessage());
+            }
+        });
+        return hashes;
+    }
+
+    public static String sha1(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // "/a/b/Name_ID" -> "/a/b/.Name_ID<suffix>", hidden from the game and from the scans
+    private static String remoteSibling(String remoteFolder, String suffix) {
+        int slash = remoteFolder.lastIndexOf('/');
+        return remoteFolder.substring(0, slash + 1) + "." + remoteFolder.substring(slash + 1) + suffix;
+    }
+
+    private static String remotePath(String remoteFolder, String file) {
+        return file.isEmpty() ? remoteFolder : remoteFolder + "/" + file;
+    }
+
+    public static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        } else if (bytes < 1024L * 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        }
+        return String.format("%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+    }
+}
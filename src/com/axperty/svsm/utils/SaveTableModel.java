@@ -0,0 +1,423 @@
+package com.axperty.svsm.utils;
+
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Table model backed by an immutable array of saves.
+// A refresh swaps the whole array with a single event, and cells are computed from the SaveInfo when painted,
+// so no row data is copied. The farm details are expensive (the SaveGameInfo has to be read), so they are
+// only loaded for rows that are actually painted, in small batches off the EDT.
+// Every method must be called on the EDT.
+@SuppressWarnings("serial")
+public class SaveTableModel extends AbstractTableModel {
+    // Columns before the farm details
+    private static final int FARM_NAME = 0;
+    private static final int ID = 1;
+    private static final int LAST_PLAYED = 2;
+    private static final int SIZE = 8;
+    private static final int FILES = 9;
+    private static final int ORIGIN = 10; // Device of an Android save, save location of a local one
+
+    // Details requested while painting are collected for this long, then loaded together
+    private static final int LOAD_DELAY_MILLIS = 50;
+
+    private static final ExecutorService loaderExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Reads the details of a batch of saves, on a background thread
+    public interface DetailsLoader {
+        void load(List<SaveInfo> saves, Consumer<SaveInfo> onLoaded);
+    }
+
+    private final String[] columns;
+    private final String offline;
+    private final String gameFolder;
+    private final DetailsLoader loader;
+    private SaveInfo[] saves = new SaveInfo[0];
+    private Map<String, Integer> rowsByKey = new HashMap<>();
+    private String placeholder;
+    private int version = 0;
+
+    // Saves whose details were already requested, and those waiting for the next batch
+    private final Set<String> requested = new HashSet<>();
+    private final List<SaveInfo> toLoad = new ArrayList<>();
+    private Timer loadTimer;
+
+    // The last column is the device for Android saves, or the save location for local ones
+    public SaveTableModel(ResourceBundle bundle, boolean deviceColumn, DetailsLoader loader) {
+        List<String> names = new ArrayList<>(List.of(
+                bundle.getString("table.farm_name.title"),
+                bundle.getString("table.id.title"),
+                bundle.getString("table.last_played.title"),
+                bundle.getString("table.farmer.title"),
+                bundle.getString("table.farm.title"),
+                bundle.getString("table.game_date.title"),
+                bundle.getString("table.money.title"),
+                bundle.getString("table.play_time.title"),
+                bundle.getString("table.size.title"),
+                bundle.getString("table.files.title")));
+        names.add(bundle.getString(deviceColumn ? "table.device.title" : "table.source.title"));
+        this.columns = names.toArray(new String[0]);
+        this.offline = bundle.getString("table.device_offline");
+        this.gameFolder = bundle.getString("table.source.game");
+        this.loader = loader;
+    }
+
+    @Override
+    public int getRowCount() {
+        return (saves.length == 0 && placeholder != null) ? 1 : saves.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    // Size and file count are numbers, so the sorter orders them by value
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (column) {
+            case SIZE:
+                return Long.class;
+            case FILES:
+                return Integer.class;
+            default:
+                return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (saves.length == 0) {
+            return (column == FARM_NAME) ? placeholder : null;
+        }
+        SaveInfo save = saves[row];
+        switch (column) {
+            case FARM_NAME:
+                return save.getSaveName() + " Farm";
+            case ID:
+                return save.getSaveId();
+            case LAST_PLAYED:
+                return save.getLastPlayed();
+            case SIZE:
+                return save.getSizeBytes() < 0 ? null : save.getSizeBytes();
+            case FILES:
+                return save.getFileCount() < 0 ? null : save.getFileCount();
+            case ORIGIN:
+                if (save.getDevice() == null) {
+                    return save.getLocation() == null ? gameFolder : save.getLocation();
+                }
+                String label = DeviceRegistry.getLabel(save.getDevice());
+                return DeviceRegistry.isConnected(save.getDevice()) ? label : label + " - " + offline;
+        }
+
+        SaveDetails details = save.getDetails();
+        if (details == null) {
+            requestDetails(save);
+            return "";
+        }
+        switch (column) {
+            case 3:
+                return details.getFarmerName();
+            case 4:
+                return details.getFarmName();
+            case 5:
+                return details.getGameDate();
+            case 6:
+                return details.getFormattedMoney();
+            default:
+                return details.getFormattedPlayTime();
+        }
+    }
+
+    // Every change of the rows increases the version, so a snapshot can be checked against the current rows
+    @Override
+    public void fireTableChanged(TableModelEvent e) {
+        version++;
+        super.fireTableChanged(e);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    // Save shown in a model row, null for the placeholder row
+    public SaveInfo getSave(int row) {
+        return (row >= 0 && row < saves.length) ? saves[row] : null;
+    }
+
+    public List<SaveInfo> getSaves() {
+        return Collections.unmodifiableList(Arrays.asList(saves));
+    }
+
+    // Total size and file count of the saves whose size is known
+    public DiskUsage.Usage getTotalUsage() {
+        long bytes = 0;
+        int files = 0;
+        for (SaveInfo save : saves) {
+            if (save.getSizeBytes() >= 0) {
+                bytes += save.getSizeBytes();
+                files += Math.max(save.getFileCount(), 0);
+            }
+        }
+        return new DiskUsage.Usage(bytes, files);
+    }
+
+    // Replace every row at once
+    public void setSaves(Collection<SaveInfo> newSaves) {
+        placeholder = null;
+        replaceSaves(newSaves.toArray(new SaveInfo[0]));
+        fireTableDataChanged();
+    }
+
+    // Add rows at the end, e.g. while a scan is still running
+    public void addSaves(Collection<SaveInfo> newSaves) {
+        if (newSaves.isEmpty()) {
+            return;
+        }
+        if (saves.length == 0) {
+            setSaves(newSaves);
+            return;
+        }
+        int firstRow = saves.length;
+        SaveInfo[] grown = Arrays.copyOf(saves, saves.length + newSaves.size());
+        int row = firstRow;
+        for (SaveInfo save : newSaves) {
+            grown[row] = save;
+            rowsByKey.put(key(save), row);
+            row++;
+        }
+        saves = grown;
+        fireTableRowsInserted(firstRow, saves.length - 1);
+    }
+
+    // Replace the row of a save, or add it if it isn't shown yet
+    public void updateSave(SaveInfo save) {
+        String key = key(save);
+        Integer row = rowsByKey.get(key);
+        if (row == null) {
+            addSaves(List.of(save));
+            return;
+        }
+        // The copy is what makes the array safe to hand out as a snapshot
+        SaveInfo[] updated = saves.clone();
+        updated[row] = save;
+        saves = updated;
+        requested.remove(key);
+        fireTableRowsUpdated(row, row);
+    }
+
+    // Replace the rows of several saves and add the ones that aren't shown yet, with a single event
+    public void updateSaves(Collection<SaveInfo> updatedSaves) {
+        if (updatedSaves.isEmpty()) {
+            return;
+        }
+        if (saves.length == 0) {
+            setSaves(updatedSaves);
+            return;
+        }
+        SaveInfo[] updated = saves.clone();
+        List<SaveInfo> added = new ArrayList<>();
+        for (SaveInfo save : updatedSaves) {
+            String key = key(save);
+            Integer row = rowsByKey.get(key);
+            if (row == null) {
+                added.add(save);
+            } else {
+                updated[row] = save;
+                requested.remove(key);
+            }
+        }
+        // New saves go at the end, within the same event
+        if (!added.isEmpty()) {
+            int row = updated.length;
+            updated = Arrays.copyOf(updated, updated.length + added.size());
+            for (SaveInfo save : added) {
+                updated[row] = save;
+                rowsByKey.put(key(save), row);
+                row++;
+            }
+        }
+        saves = updated;
+        fireTableDataChanged();
+    }
+
+    // Mark rows as stale until a scan confirms them, e.g. the saves of a device that was disconnected
+    public void markStale(Predicate<SaveInfo> filter) {
+        SaveInfo[] updated = saves.clone();
+        boolean changed = false;
+        for (int row = 0; row < updated.length; row++) {
+            if (!updated[row].isStale() && filter.test(updated[row])) {
+                updated[row] = updated[row].withStale(true);
+                changed = true;
+            }
+        }
+        if (changed) {
+            saves = updated;
+            fireTableRowsUpdated(0, saves.length - 1);
+        }
+    }
+
+    // Remove the row of a save, device is null for local saves and location null for the game's Saves folder
+    public void removeSave(String folderName, String device, String location) {
+        removeRow(key(folderName, device, location));
+    }
+
+    private void removeRow(String key) {
+        Integer row = rowsByKey.get(key);
+        if (row == null) {
+            return;
+        }
+        SaveInfo[] remaining = new SaveInfo[saves.length - 1];
+        System.arraycopy(saves, 0, remaining, 0, row);
+        System.arraycopy(saves, row + 1, remaining, row, saves.length - row - 1);
+        saves = remaining;
+        rowsByKey = indexRows(saves);
+        fireTableRowsDeleted(row, row);
+    }
+
+    // Remove the rows of several saves with one pass over the rows
+    public void removeSaves(Collection<SaveInfo> removed) {
+        Set<String> keys = new HashSet<>();
+        for (SaveInfo save : removed) {
+            keys.add(key(save));
+        }
+        keys.retainAll(rowsByKey.keySet());
+        if (keys.size() <= 1) {
+            keys.forEach(this::removeRow);
+            return;
+        }
+        List<SaveInfo> remaining = new ArrayList<>(saves.length - keys.size());
+        for (SaveInfo save : saves) {
+            if (!keys.contains(key(save))) {
+                remaining.add(save);
+            }
+        }
+        saves = remaining.toArray(new SaveInfo[0]);
+        rowsByKey = indexRows(saves);
+        fireTableDataChanged();
+    }
+
+    // Show a single message row instead of the saves, or nothing if message is null
+    public void setPlaceholder(String message) {
+        placeholder = message;
+        replaceSaves(new SaveInfo[0]);
+        fireTableDataChanged();
+    }
+
+    private void replaceSaves(SaveInfo[] newSaves) {
+        saves = newSaves;
+        rowsByKey = indexRows(saves);
+        requested.clear();
+        toLoad.clear();
+    }
+
+    // --- Lazy details ---
+
+    // Stale rows may be on a device that isn't connected, their details come with the scan that confirms them
+    private void requestDetails(SaveInfo save) {
+        if (loader == null || save.isStale() || !requested.add(key(save))) {
+            return;
+        }
+        toLoad.add(save);
+        if (loadTimer == null) {
+            loadTimer = new Timer(LOAD_DELAY_MILLIS, e -> loadRequested());
+            loadTimer.setRepeats(false);
+        }
+        if (!loadTimer.isRunning()) {
+            loadTimer.start();
+        }
+    }
+
+    // Load the details of every save that doesn't have them yet, e.g. to search the farm names
+    public void requestAllDetails() {
+        for (SaveInfo save : saves) {
+            if (save.getDetails() == null) {
+                requestDetails(save);
+            }
+        }
+    }
+
+    private void loadRequested() {
+        List<SaveInfo> batch = new ArrayList<>(toLoad);
+        toLoad.clear();
+        if (batch.isEmpty()) {
+            return;
+        }
+        loaderExecutor.execute(() -> {
+            List<SaveInfo> loaded = Collections.synchronizedList(new ArrayList<>());
+            try {
+                loader.load(batch, loaded::add);
+            } catch (RuntimeException e) {
+                System.err.println("Error loading save details: " + e.getMessage());
+            }
+            SwingUtilities.invokeLater(() -> applyDetails(loaded));
+        });
+    }
+
+    // Show loaded details with one copy of the rows and one event, skipping rows that were replaced
+    // by a newer version of the save in the meantime
+    private void applyDetails(List<SaveInfo> loaded) {
+        SaveInfo[] updated = null;
+        int firstRow = Integer.MAX_VALUE;
+        int lastRow = -1;
+        for (SaveInfo save : loaded) {
+            Integer row = rowsByKey.get(key(save));
+            if (row == null || save.getDetails() == null) {
+                continue;
+            }
+            SaveInfo current = saves[row];
+            if (current.getDetails() == null && current.getLastModified() == save.getLastModified()) {
+                if (updated == null) {
+                    updated = saves.clone();
+                }
+                updated[row] = save;
+                firstRow = Math.min(firstRow, row);
+                lastRow = Math.max(lastRow, row);
+            }
+        }
+        if (updated != null) {
+            saves = updated;
+            fireTableRowsUpdated(firstRow, lastRow);
+        }
+    }
+
+    private static Map<String, Integer> indexRows(SaveInfo[] saves) {
+        Map<String, Integer> rows = new HashMap<>(saves.length * 2);
+        for (int row = 0; row < saves.length; row++) {
+            rows.put(key(saves[row]), row);
+        }
+        return rows;
+    }
+
+    private static String key(SaveInfo save) {
+        return key(save.getFolderName(), save.getDevice(), save.getLocation());
+    }
+
+    // The same folder name can be on several devices and in several save locations
+    private static String key(String folderName, String device, String location) {
+        if (device != null) {
+            return folderName + "@" + device;
+        }
+        return location == null ? folderName : folderName + "/" + location;
+    }
+}
@@ -0,0 +1,245 @@
+package com.axperty.svsm.utils;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Deleting a save moves it to a trash folder with a single rename
+// (one adb command for every save of a device), so deleting many saves is instant and can be undone.
+// The trash is emptied in the background once the delete is confirmed.
+// Each delete is a batch, kept in its own trash sub folder.
+// Local saves go to a hidden folder inside their saves folder, which scans skip like staging folders,
+// Android saves to a folder next to the device's saves folder.
+public class SaveTrash {
+    private static final String TRASH_FOLDER = ".svsm-trash";
+
+    // Printed by the device script for each save it moved
+    private static final String MOVED_MARKER = "__SVSM_MOVED__";
+
+    // Batches of a run that ended without a purge, which can't be told apart from one still waiting for undo
+    // in another run, are only removed from a device once they are this old
+    private static final long LEFTOVER_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final AtomicLong lastBatchId = new AtomicLong();
+
+    // The saves moved to the trash by one delete, device is null for Steam saves
+    public record Batch(String id, String device, Path savesDirectory, List<String> folders) {
+        public boolean isEmpty() {
+            return folders.isEmpty();
+        }
+    }
+
+    // Inside the saves folder, so moving a save there is a rename even for save locations
+    // on another drive, or whose parent is read only
+    public static Path getSteamTrash(Path savesDirectory) {
+        return savesDirectory.resolve(TRASH_FOLDER);
+    }
+
+    private static String getAndroidTrash() {
+        return GetData.ANDROID_SAVES_PATH.substring(0, GetData.ANDROID_SAVES_PATH.lastIndexOf('/') + 1) + TRASH_FOLDER;
+    }
+
+    // Time based, increased if two deletes start in the same millisecond
+    private static String newBatchId() {
+        return String.valueOf(lastBatchId.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis())));
+    }
+
+    // Move Steam saves to the trash. The batch only holds the saves that were moved, the others are logged.
+    public static Batch trashSteamSaves(Path savesDirectory, Collection<String> folders) throws IOException {
+        String id = newBatchId();
+        Path batchFolder = getSteamTrash(savesDirectory).resolve(id);
+        Files.createDirectories(batchFolder);
+        List<String> moved = new ArrayList<>();
+        try (Metrics.Span span = Metrics.start("trash.steam", null)) {
+            for (String folder : folders) {
+                try {
+                    Files.move(savesDirectory.resolve(folder), batchFolder.resolve(folder), StandardCopyOption.ATOMIC_MOVE);
+                    moved.add(folder);
+                } catch (IOException e) {
+                    span.fail(e);
+                    System.err.println("Error moving " + folder + " to the trash: " + e.getMessage());
+                }
+            }
+        }
+        return new Batch(id, null, savesDirectory, moved);
+    }
+
+    // Move saves of a device to its trash with one command
+    public static Batch trashAndroidSaves(String device, Collection<String> folders) throws IOException {
+        String id = newBatchId();
+        String batchFolder = AdbSession.quote(getAndroidTrash() + "/" + id);
+        String script = "mkdir -p " + batchFolder + " && cd " + AdbSession.quote(GetData.ANDROID_SAVES_PATH)
+                + " && for f in" + quoteAll(folders) + "; do mv \"$f\" " + batchFolder + "/ && echo \"" + MOVED_MARKER + "$f\"; done";
+        List<String> moved = new ArrayList<>();
+        try (Metrics.Span span = Metrics.start("trash.android", device)) {
+            AdbSession.get(device).stream(script, line -> {
+                if (line.startsWith(MOVED_MARKER)) {
+                    moved.add(line.substring(MOVED_MARKER.length()));
+                } else {
+                    System.err.println("Error moving save to the trash on " + device + ": " + line);
+                }
+            });
+            if (moved.size() < folders.size()) {
+                span.fail((folders.size() - moved.size()) + " saves not moved");
+            }
+        }
+        return new Batch(id, device, null, moved);
+    }
+
+    // Put the saves of a batch back, unless a save with the same name was created since.
+    // Returns the folders that were restored.
+    public static List<String> restore(Batch batch) throws IOException {
+        List<String> restored = new ArrayList<>();
+        if (batch.device() == null) {
+            Path batchFolder = getSteamTrash(batch.savesDirectory()).resolve(batch.id());
+            for (String folder : batch.folders()) {
+                Path destination = batch.savesDirectory().resolve(folder);
+                if (Files.exists(destination)) {
+                    System.err.println("Not restoring " + folder + ", a save with the same name exists.");
+                    continue;
+                }
+                try {
+                    Files.move(batchFolder.resolve(folder), destination, StandardCopyOption.ATOMIC_MOVE);
+                    restored.add(folder);
+                } catch (IOException e) {
+                    System.err.println("Error restoring " + folder + ": " + e.getMessage());
+                }
+            }
+            return restored;
+        }
+
+        String saves = AdbSession.quote(GetData.ANDROID_SAVES_PATH);
+        String script = "cd " + AdbSession.quote(getAndroidTrash() + "/" + batch.id()) + " && for f in" + quoteAll(batch.folders())
+                + "; do [ ! -e " + saves + "/\"$f\" ] && mv \"$f\" " + saves + "/ && echo \"" + MOVED_MARKER + "$f\"; done; true";
+        AdbSession.get(batch.device()).stream(script, line -> {
+            if (line.startsWith(MOVED_MARKER)) {
+                restored.add(line.substring(MOVED_MARKER.length()));
+            }
+        });
+        return restored;
+    }
+
+    // Delete the saves of a batch for good. Other batches may still wait for undo, in this run or another one
+    // (e.g. a command line delete), so only this batch goes. On a device, batches left by a run that ended
+    // before its delete was kept or undone are removed once they are a day old.
+    public static void purge(Batch batch) throws IOException {
+        if (batch.device() == null) {
+            Path trash = getSteamTrash(batch.savesDirectory());
+            try (Metrics.Span span = Metrics.start("trash.purge", null)) {
+                try {
+                    deleteBatches(List.of(trash.resolve(batch.id())));
+                } catch (IOException e) {
+                    span.fail(e);
+                    throw e;
+                }
+            }
+            deleteIfEmpty(trash);
+            return;
+        }
+        AdbSession session = AdbSession.get(batch.device());
+        long cutoff = System.currentTimeMillis() - LEFTOVER_MILLIS;
+        StringBuilder script = new StringBuilder("rm -rf ").append(AdbSession.quote(getAndroidTrash() + "/" + batch.id()));
+        for (String line : session.run("ls " + AdbSession.quote(getAndroidTrash()) + " 2>/dev/null").getLines()) {
+            String name = line.trim();
+            if (!name.equals(batch.id()) && batchTime(name) < cutoff) {
+                script.append(' ').append(AdbSession.quote(getAndroidTrash() + "/" + name));
+            }
+        }
+        script.append(" && { rmdir ").append(AdbSession.quote(getAndroidTrash())).append(" 2>/dev/null; true; }");
+        try (Metrics.Span span = Metrics.start("trash.purge", batch.device())) {
+            int exitCode = session.run(script.toString()).getExitCode();
+            if (exitCode != 0) {
+                span.fail("Exit code " + exitCode);
+                System.err.println("Error emptying the trash on " + batch.device() + ". Exit code: " + exitCode);
+            }
+        }
+    }
+
+    // Empty the batches left in the Steam trash by runs that were closed before their delete was kept or undone.
+    // Batch ids are creation times, so batches of this run, or of a run started since, are left alone.
+    public static void purgeLeftovers(Path savesDirectory) throws IOException {
+        Path trash = getSteamTrash(savesDirectory);
+        if (!Files.isDirectory(trash)) {
+            return;
+        }
+        long started = ManagementFactory.getRuntimeMXBean().getStartTime();
+        List<Path> leftovers;
+        try (Stream<Path> batches = Files.list(trash)) {
+            leftovers = batches.filter(batch -> batchTime(batch.getFileName().toString()) < started).toList();
+        }
+        if (leftovers.isEmpty()) {
+            return;
+        }
+        try (Metrics.Span span = Metrics.start("trash.purge", null)) {
+            try {
+                deleteBatches(leftovers);
+            } catch (IOException e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+        deleteIfEmpty(trash);
+    }
+
+    // Creation time of a batch folder, folders that aren't batches count as new and are kept
+    private static long batchTime(String name) {
+        try {
+            return Long.parseLong(name);
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    // The saves of the batches are deleted in parallel, then the batch folders
+    private static void deleteBatches(List<Path> batches) throws IOException {
+        List<Path> saves = new ArrayList<>();
+        for (Path batch : batches) {
+            if (Files.isDirectory(batch)) {
+                try (Stream<Path> list = Files.list(batch)) {
+                    saves.addAll(list.toList());
+                }
+            }
+        }
+        List<IOException> errors = new ArrayList<>();
+        saves.parallelStream().forEach(save -> {
+            try {
+                CopyEngine.deleteRecursively(save);
+            } catch (IOException e) {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            }
+        });
+        if (!errors.isEmpty()) {
+            throw errors.get(0);
+        }
+        for (Path batch : batches) {
+            CopyEngine.deleteRecursively(batch);
+        }
+    }
+
+    // Another batch may have been added since, then the trash stays
+    private static void deleteIfEmpty(Path trash) {
+        try {
+            Files.deleteIfExists(trash);
+        } catch (IOException e) {
+            // Not empty
+        }
+    }
+
+    private static String quoteAll(Collection<String> folders) {
+        StringBuilder quoted = new StringBuilder();
+        for (String folder : folders) {
+            quoted.append(' ').append(AdbSession.quote(folder));
+        }
+        return quoted.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package com.axperty.svsm.utils;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+// In-memory index of the saves in the game's Saves folder, keyed by folder name. Other save locations aren't indexed.
+// After the first scan a WatchService keeps it current, so refreshing the Steam table
+// only reads the index instead of listing the Saves folder again.
+// Farm details aren't read by the scan, they are added once the table loaded them.
+public class SteamSaveIndex {
+    private static SteamSaveIndex instance;
+
+    private final Path savesDirectory;
+    private final Map<String, SaveInfo> saves = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedFolders = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private volatile boolean live = false;
+
+    public interface Listener {
+        // Called from the watcher thread, save is null if the folder was removed
+        void saveChanged(String folderName, SaveInfo save);
+    }
+
+    private SteamSaveIndex(Path savesDirectory) {
+        this.savesDirectory = savesDirectory;
+    }
+
+    // Get the index of the Steam saves folder, or null if it can't be located
+    public static synchronized SteamSaveIndex get() {
+        if (instance == null) {
+            Path savesDirectory = SaveLocations.getGameSavesPath();
+            if (savesDirectory == null) {
+                return null;
+            }
+            instance = new SteamSaveIndex(savesDirectory);
+        }
+        return instance;
+    }
+
+    // True once the saves were scanned and the folder is being watched for changes
+    public boolean isLive() {
+        return live;
+    }
+
+    public List<SaveInfo> getSaves() {
+        return new ArrayList<>(saves.values());
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // Scan the whole folder again, passing each save to the consumer, and start watching it
+    public synchronized void load(Consumer<SaveInfo> consumer) {
+        startWatching();
+        saves.clear();
+        GetData.scanSteamSaves(save -> {
+            saves.put(save.getFolderName(), save);
+            watchFolder(savesDirectory.resolve(save.getFolderName()));
+            consumer.accept(save);
+        }, false);
+        live = watchService != null;
+    }
+
+    // Re-read a single save folder, e.g. after deleting or moving it
+    public void refresh(String folderName) {
+        Path folder = savesDirectory.resolve(folderName);
+
+        // A file rewritten in place doesn't always change the folder's time, so the size is measured again
+        DiskUsage.invalidate(folder);
+        SaveInfo save = Files.isDirectory(folder) ? GetData.getSteamSaveInfo(folder, false) : null;
+        SaveInfo previous = (save == null) ? saves.remove(folderName) : saves.put(folderName, save);
+        if (save != null) {
+            watchFolder(folder);
+        }
+        if (save != null || previous != null) {
+            for (Listener listener : listeners) {
+                listener.saveChanged(folderName, save);
+            }
+        }
+    }
+
+    // Keep the details read for a save, unless the save changed since
+    public void updateDetails(SaveInfo save) {
+        saves.computeIfPresent(save.getFolderName(), (folderName, current) ->
+                current.getLastModified() == save.getLastModified() ? save : current);
+    }
+
+    private void startWatching() {
+        if (watchService != null) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            savesDirectory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.err.println("Unable to watch Steam saves directory, refresh will rescan it: " + e.getMessage());
+            watchService = null;
+            return;
+        }
+
+        Thread watcher = new Thread(this::watchLoop, "svsm-steam-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    // Save files are written inside the save folder, so each folder is watched as well
+    private void watchFolder(Path folder) {
+        if (watchService == null || watchedFolders.containsValue(folder)) {
+            return;
+        }
+        try {
+            watchedFolders.put(folder.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), folder);
+        } catch (IOException e) {
+            System.err.println("Unable to watch save folder " + folder + ": " + e.getMessage());
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path folder = watchedFolders.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        // Too many events were lost, the index has to be rebuilt on the next refresh
+                        live = false;
+                    } else if (folder != null) {
+                        // Something changed inside a save folder
+                        refresh(folder.getFileName().toString());
+                    } else {
+                        // A save folder was created, modified or removed
+                        refresh(((Path) event.context()).getFileName().toString());
+                    }
+                }
+                if (!key.reset() && folder != null) {
+                    watchedFolders.remove(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            live = false;
+        }
+    }
+}
@@ -1,51 +1,356 @@
-// In TableUtils.java
 package com.axperty.svsm.utils;
+import com.axperty.svsm.properties.SetLanguage;
+
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.JTableHeader;
+import javax.swing.table.TableCellRenderer;
 import java.awt.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class TableBuilder {
 
+    // Create the Steam table, with a column for the save location each save is in.
+    // Farm details are read from the save folders as rows are shown.
+    public static JTable createSteamTable(ResourceBundle bundle) {
+        return createTable(new SaveTableModel(bundle, false, cachingLoader(TableBuilder::loadSteamDetails)));
+    }
+
+    // Create the Android table, with a column for the device each save is on
+    public static JTable createAndroidTable(ResourceBundle bundle) {
+        return createTable(new SaveTableModel(bundle, true, cachingLoader(GetData::readAndroidSaveDetails)));
+    }
+
+    // Details read for the table are also kept in the listing cache, for the next start
+    private static SaveTableModel.DetailsLoader cachingLoader(SaveTableModel.DetailsLoader loader) {
+        return (saves, onLoaded) -> loader.load(saves, save -> {
+            ListingCache.get().putSave(save);
+            onLoaded.accept(save);
+        });
+    }
+
     // Create the table
-    public static JTable createTable(ResourceBundle bundle) {
-        JTable table = new JTable();
-        DefaultTableModel model = new DefaultTableModel();
-        model.addColumn(bundle.getString("table.farm_name.title"));
-        model.addColumn(bundle.getString("table.id.title"));
-        model.addColumn(bundle.getString("table.last_played.title"));
+    private static JTable createTable(SaveTableModel model) {
+        JTable table = new JTable() {
+            // Stale rows, shown from the listing cache until a scan confirms them, are greyed out
+            @Override
+            public Component prepareRenderer(TableCellRenderer renderer, int row, int column) {
+                Component component = super.prepareRenderer(renderer, row, column);
+                SaveInfo save = getSave(this, row);
+                if (save != null && save.isStale() && !isRowSelected(row)) {
+                    component.setForeground(Color.GRAY);
+                }
+                return component;
+            }
+        };
         table.setModel(model);
         table.setRowHeight(30);
+        table.setDefaultRenderer(Long.class, new SizeRenderer());
         JTableHeader header = table.getTableHeader();
         header.setFont(new Font("Segoe UI", Font.BOLD, 13));
         return table;
     }
 
-    // Update Lists
+    // Shows a size in bytes as "1.2 MB", the model keeps the number so the column sorts by size
+    @SuppressWarnings("serial")
+    private static class SizeRenderer extends DefaultTableCellRenderer {
+        SizeRenderer() {
+            setHorizontalAlignment(SwingConstants.RIGHT);
+        }
+
+        @Override
+        protected void setValue(Object value) {
+            setText(value instanceof Long bytes ? SaveSync.formatSize(bytes) : "");
+        }
+    }
+
+    public static SaveTableModel getModel(JTable table) {
+        return (SaveTableModel) table.getModel();
+    }
+
+    // Update Lists, both platforms are scanned at the same time
     public static void updateTables(JTable androidTable, JTable steamTable) {
         updateAndroidTable(androidTable);
         updateSteamTable(steamTable);
     }
 
-    // Update Android Table
+    // Update Android Table, scanning in the background and showing saves as they are found.
+    // Farm details are read later, only for the rows that are shown.
+    // Saves of disconnected devices stay, as stale rows.
     public static void updateAndroidTable(JTable androidTable) {
-        DefaultTableModel model = (DefaultTableModel) androidTable.getModel();
-        model.setRowCount(0); // Clear existing data
-        List<String[]> saveData = GetData.getAndroidSavesData();
-        for (String[] data : saveData) {
-            model.addRow(data);
-        }
+        RowStream rows = new RowStream(androidTable, save -> DeviceRegistry.isConnected(save.getDevice()));
+        TaskRunner.submit(SetLanguage.getBundle().getString("task.scan_android"), () -> {
+            Map<String, List<SaveInfo>> byDevice = new ConcurrentHashMap<>();
+            ListingCache cache = ListingCache.get();
+            GetData.scanAndroidSaves(save -> {
+                SaveInfo merged = cache.merge(save);
+                byDevice.computeIfAbsent(save.getDevice(), k -> Collections.synchronizedList(new ArrayList<>())).add(merged);
+                rows.add(merged);
+            });
+
+            // Devices without saves have an empty listing
+            for (DeviceRegistry.Device device : DeviceRegistry.getDevices()) {
+                cache.putListing(device.getSerial(), device.getModel(), byDevice.getOrDefault(device.getSerial(), List.of()));
+            }
+            cache.write();
+            return null;
+        }, done -> rows.finish(), null);
+    }
+
+    // Scan a device that was just connected and add its saves, the rows of the other devices stay
+    public static void addAndroidDevice(JTable androidTable, String serial) {
+        TaskRunner.submit(SetLanguage.getBundle().getString("task.scan_android") + " " + DeviceRegistry.getLabel(serial), () -> {
+            ListingCache cache = ListingCache.get();
+            List<SaveInfo> saves = new ArrayList<>();
+            GetData.scanAndroidSaves(serial, save -> saves.add(cache.merge(save)));
+            cache.putListing(serial, DeviceRegistry.getModel(serial), saves);
+            cache.write();
+            return saves;
+        }, saves -> {
+            // Rows left by an earlier connection of the device, or from the listing cache, are replaced
+            removeAndroidDevice(androidTable, serial);
+            SaveTableModel model = getModel(androidTable);
+            if (model.getSaves().isEmpty()) {
+                model.setSaves(saves);
+            } else {
+                model.addSaves(saves);
+            }
+        }, null);
+    }
+
+    // Keep the saves of a device that was disconnected, as stale rows that can still be browsed
+    public static void markAndroidDeviceOffline(JTable androidTable, String serial) {
+        getModel(androidTable).markStale(save -> serial.equals(save.getDevice()));
+    }
+
+    private static void removeAndroidDevice(JTable androidTable, String serial) {
+        SaveTableModel model = getModel(androidTable);
+        model.removeSaves(model.getSaves().stream().filter(save -> serial.equals(save.getDevice())).toList());
     }
 
-    // Update Steam Table
+    // Update Steam Table from the save index, scanning in the background only if the index isn't live yet
     public static void updateSteamTable(JTable steamTable) {
-        DefaultTableModel model = (DefaultTableModel) steamTable.getModel();
-        model.setRowCount(0); // Clear existing data
-        List<String[]> saveData = GetData.getSteamSavesData();
-        for (String[] data : saveData) {
-            model.addRow(data);
+        updateSteamTable(steamTable, null);
+    }
+
+    // Update Steam Table, onDone (if not null) is called on the EDT once the rows are shown.
+    // The game's Saves folder comes from its index, other save locations are scanned every time.
+    // Locations are scanned at the same time, one that doesn't answer in time shows its cached saves as stale rows.
+    public static void updateSteamTable(JTable steamTable, Runnable onDone) {
+        SteamSaveIndex index = SteamSaveIndex.get();
+        if ((index == null || index.isLive()) && !SaveLocations.hasOtherLocations()) {
+            getModel(steamTable).setSaves(index == null ? List.of() : index.getSaves());
+            if (onDone != null) {
+                onDone.run();
+            }
+            return;
+        }
+        Set<String> late = Collections.synchronizedSet(new HashSet<>());
+        RowStream rows = new RowStream(steamTable, save -> !late.contains(save.getLocation()));
+        TaskRunner.submit(SetLanguage.getBundle().getString("task.scan_steam"), () -> {
+            ListingCache cache = ListingCache.get();
+            List<SaveLocations.Location> skipped = SaveLocations.scanEach(SaveLocations.getLocations(), (location, found) -> {
+                List<SaveInfo> saves = Collections.synchronizedList(new ArrayList<>());
+                Consumer<SaveInfo> consumer = save -> {
+                    // Details are kept from the cache for saves that didn't change
+                    SaveInfo merged = cache.merge(save);
+                    if (merged != save && location.isGameFolder()) {
+                        index.updateDetails(merged);
+                    }
+                    saves.add(merged);
+                    found.accept(merged);
+                };
+                if (!location.isGameFolder()) {
+                    SaveLocations.scan(location, consumer, false);
+                } else if (index.isLive()) {
+                    index.getSaves().forEach(consumer);
+                } else {
+                    index.load(consumer);
+                }
+                cache.putSteamListing(location.name(), saves);
+            }, rows::add);
+
+            // The rows of a location that didn't answer stay as they were last seen
+            for (SaveLocations.Location location : skipped) {
+                late.add(location.name());
+                cache.getSteamSaves(location.name()).forEach(rows::add);
+            }
+            cache.write();
+            return null;
+        }, done -> {
+            rows.finish();
+            if (onDone != null) {
+                onDone.run();
+            }
+        }, null);
+    }
+
+    // Show the saves of the last run from the listing cache, marked as stale, until the scans replace them.
+    // Returns false if there were none.
+    public static boolean showCachedSaves(JTable table, List<SaveInfo> saves) {
+        if (saves.isEmpty()) {
+            return false;
+        }
+        getModel(table).setSaves(saves);
+        return true;
+    }
+
+    // Show a single message row until the table is filled, or clear the table if message is null
+    public static void showPlaceholder(JTable table, String message) {
+        getModel(table).setPlaceholder(message);
+    }
+
+    // Keep the Steam table in sync with changes seen by the save index
+    public static void watchSteamTable(JTable steamTable) {
+        SteamSaveIndex index = SteamSaveIndex.get();
+        if (index == null) {
+            return;
+        }
+        index.addListener((folderName, save) -> {
+            if (save == null) {
+                ListingCache.get().removeSave(folderName, null, null);
+            } else {
+                ListingCache.get().putSave(save);
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (save == null) {
+                    getModel(steamTable).removeSave(folderName, null, null);
+                } else {
+                    getModel(steamTable).updateSave(save);
+                }
+            });
+        });
+    }
+
+    // Read the SaveGameInfo of local saves, keeping the details in the index for the next refresh
+    private static void loadSteamDetails(List<SaveInfo> saves, Consumer<SaveInfo> onLoaded) {
+        SteamSaveIndex index = SteamSaveIndex.get();
+        saves.parallelStream().forEach(save -> {
+            Path folder = SaveLocations.resolve(save);
+            if (folder == null) {
+                return;
+            }
+            SaveInfo loaded = save.withDetails(SaveGameInfoReader.read(folder));
+            if (index != null && save.getLocation() == null) {
+                index.updateDetails(loaded);
+            }
+            onLoaded.accept(loaded);
+        });
+    }
+
+    // Get the save shown in a table row (a view index), null for the placeholder row
+    public static SaveInfo getSave(JTable table, int row) {
+        return getModel(table).getSave(table.convertRowIndexToModel(row));
+    }
+
+    // Get the selected save, null if nothing or the placeholder row is selected
+    public static SaveInfo getSelectedSave(JTable table) {
+        int row = table.getSelectedRow();
+        return (row == -1) ? null : getSave(table, row);
+    }
+
+    // Get every selected save, in view order
+    public static List<SaveInfo> getSelectedSaves(JTable table) {
+        List<SaveInfo> selected = new ArrayList<>();
+        for (int row : table.getSelectedRows()) {
+            SaveInfo save = getSave(table, row);
+            if (save != null) {
+                selected.add(save);
+            }
+        }
+        return selected;
+    }
+
+    // Collects saves from a background scan and adds them to the table in batches,
+    // at most once per frame, so a fast scan doesn't flood the EDT with one event per row.
+    // If the table shows stale rows (e.g. from the listing cache) the scanned saves replace them row by row
+    // instead, and once the scan finished the stale rows it covered but didn't find are removed.
+    private static class RowStream {
+        private static final String GENERATION_KEY = "svsm.scanGeneration";
+        private static final int FRAME_MILLIS = 16;
+
+        private final JTable table;
+        private final Predicate<SaveInfo> scanned;
+        private final boolean reconcile;
+        private final int generation;
+        private final Queue<SaveInfo> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final Timer timer;
+        private boolean replaced = false;
+
+        // Must be created on the EDT, the current rows stay visible until the first new rows arrive
+        // scanned tells which rows the scan covers
+        RowStream(JTable table, Predicate<SaveInfo> scanned) {
+            this.table = table;
+            this.scanned = scanned;
+            SaveTableModel model = getModel(table);
+            reconcile = model.getSaves().stream().anyMatch(SaveInfo::isStale);
+            if (reconcile) {
+                // Rows that are still shown need confirming as well
+                model.markStale(scanned);
+            }
+            Integer previous = (Integer) table.getClientProperty(GENERATION_KEY);
+            generation = (previous == null) ? 0 : previous + 1;
+            table.putClientProperty(GENERATION_KEY, generation);
+
+            timer = new Timer(FRAME_MILLIS, e -> flush());
+            timer.setRepeats(false);
+        }
+
+        // Can be called from any thread
+        void add(SaveInfo save) {
+            pending.add(save);
+            if (scheduled.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(timer::start);
+            }
+        }
+
+        // Show the pending saves with a single model event, must be called on the EDT.
+        // The first batch replaces the previous rows, later ones are appended.
+        void flush() {
+            scheduled.set(false);
+
+            // A newer scan of this table has started, drop the saves of this one
+            if (!Integer.valueOf(generation).equals(table.getClientProperty(GENERATION_KEY))) {
+                pending.clear();
+                return;
+            }
+
+            List<SaveInfo> batch = new ArrayList<>();
+            SaveInfo save;
+            while ((save = pending.poll()) != null) {
+                batch.add(save);
+            }
+            if (reconcile) {
+                getModel(table).updateSaves(batch);
+            } else if (!replaced) {
+                getModel(table).setSaves(batch);
+                replaced = true;
+            } else {
+                getModel(table).addSaves(batch);
+            }
+        }
+
+        // Show what is left once the scan finished, must be called on the EDT
+        void finish() {
+            flush();
+            if (reconcile && Integer.valueOf(generation).equals(table.getClientProperty(GENERATION_KEY))) {
+                SaveTableModel model = getModel(table);
+                model.removeSaves(model.getSaves().stream().filter(save -> save.isStale() && scanned.test(save)).toList());
+            }
         }
     }
-}
\ No newline at end of file
+}
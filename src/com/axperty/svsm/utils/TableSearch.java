@@ -0,0 +1,145 @@
+package com.axperty.svsm.utils;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.TableRowSorter;
+import java.awt.*;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// Search bar of a save table.
+// Typing only restarts a short timer, the query then runs on a SaveSearchIndex off the EDT and the
+// matching rows are applied with a filter that is a single bit lookup per row.
+// The text is matched literally, unless the regex box is checked.
+public class TableSearch {
+    // Wait this long after the last keystroke before searching
+    private static final int DEBOUNCE_MILLIS = 150;
+
+    private static final ExecutorService searchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final SaveTableModel model;
+    private final TableRowSorter<SaveTableModel> sorter;
+    private final JTextField field;
+    private final JCheckBox regexBox;
+    private final Timer debounce;
+    private int generation = 0;
+
+    // Index of the last searched rows, rebuilt when the model changes
+    private SaveSearchIndex index;
+    private int indexVersion = -1;
+
+    private TableSearch(TableRowSorter<SaveTableModel> sorter, JTextField field, JCheckBox regexBox) {
+        this.model = sorter.getModel();
+        this.sorter = sorter;
+        this.field = field;
+        this.regexBox = regexBox;
+        this.debounce = new Timer(DEBOUNCE_MILLIS, null);
+        this.debounce.setRepeats(false);
+    }
+
+    // Filter the rows of sorter with the text of field, must be called on the EDT
+    public static void install(TableRowSorter<SaveTableModel> sorter, JTextField field, JCheckBox regexBox) {
+        TableSearch search = new TableSearch(sorter, field, regexBox);
+        search.debounce.addActionListener(e -> search.search());
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search.debounce.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search.debounce.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                search.debounce.restart();
+            }
+        });
+        regexBox.addActionListener(e -> search.search());
+
+        // New or updated rows are searched again once they settle
+        search.model.addTableModelListener(e -> {
+            if (!search.field.getText().isBlank()) {
+                search.debounce.restart();
+            }
+        });
+    }
+
+    // Filter showing only the model rows set in rows
+    public static RowFilter<SaveTableModel, Integer> rowFilter(BitSet rows) {
+        return new RowFilter<>() {
+            @Override
+            public boolean include(Entry<? extends SaveTableModel, ? extends Integer> entry) {
+                return rows.get(entry.getIdentifier());
+            }
+        };
+    }
+
+    private void search() {
+        debounce.stop();
+        String text = field.getText().trim();
+        int current = ++generation;
+        if (text.isEmpty()) {
+            showValid();
+            sorter.setRowFilter(null);
+            return;
+        }
+
+        Pattern pattern = null;
+        if (regexBox.isSelected()) {
+            try {
+                pattern = Pattern.compile(text, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            } catch (PatternSyntaxException e) {
+                // Keep the rows of the last valid pattern while it is being typed
+                field.setForeground(Color.RED);
+                field.setToolTipText(e.getDescription());
+                return;
+            }
+        }
+        showValid();
+
+        // Farmer and farm names are only known once the details are read, read all of them to search them
+        model.requestAllDetails();
+
+        int version = model.getVersion();
+        List<SaveInfo> saves = model.getSaves();
+        Pattern query = pattern;
+        searchExecutor.execute(() -> {
+            BitSet rows;
+            try {
+                SaveSearchIndex searchIndex = getIndex(version, saves);
+                rows = (query == null) ? searchIndex.find(text) : searchIndex.find(query);
+            } catch (RuntimeException e) {
+                System.err.println("Error searching saves: " + e.getMessage());
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                // The rows changed in the meantime, the model listener already searches them again
+                if (current == generation && version == model.getVersion()) {
+                    sorter.setRowFilter(rowFilter(rows));
+                }
+            });
+        });
+    }
+
+    // Index of the saves at a model version, reusing the last one if nothing changed
+    private synchronized SaveSearchIndex getIndex(int version, List<SaveInfo> saves) {
+        if (index == null || indexVersion != version) {
+            index = new SaveSearchIndex(saves);
+            indexVersion = version;
+        }
+        return index;
+    }
+
+    private void showValid() {
+        field.setForeground(UIManager.getColor("TextField.foreground"));
+        field.setToolTipText(null);
+    }
+}
@@ -0,0 +1,189 @@
+package com.axperty.svsm.utils;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Runs scans, transfers and deletes off the Swing event dispatch thread.
+// Results and errors are delivered back on the EDT, and running tasks can be cancelled.
+public class TaskRunner {
+    private static final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private static final List<Task<?>> runningTasks = new CopyOnWriteArrayList<>();
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    // Not inherited, pool threads outlive the task that started them. Work handed to other threads
+    // joins the task through withCurrentTask.
+    private static final ThreadLocal<Task<?>> currentTask = new ThreadLocal<>();
+
+    public interface Job<T> {
+        T run() throws Exception;
+    }
+
+    // Removes a cancel hook once the work it stops is over
+    public interface CancelHook extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    // Run a job in the background, onSuccess and onError are called on the EDT (either can be null)
+    public static <T> Task<T> submit(String label, Job<T> job, Consumer<T> onSuccess, Consumer<Exception> onError) {
+        Task<T> task = new Task<>(label);
+        runningTasks.add(task);
+        fireChanged();
+
+        task.future = executor.submit(() -> {
+            currentTask.set(task);
+            try {
+                T result = job.run();
+                if (!task.cancelled && onSuccess != null) {
+                    SwingUtilities.invokeLater(() -> onSuccess.accept(result));
+                }
+            } catch (Exception e) {
+                if (task.cancelled) {
+                    System.err.println("Task cancelled: " + label);
+                } else if (onError != null) {
+                    SwingUtilities.invokeLater(() -> onError.accept(e));
+                } else {
+                    System.err.println("Error in task \"" + label + "\": " + e.getMessage());
+                }
+            } finally {
+                task.finished = true;
+                currentTask.remove();
+                runningTasks.remove(task);
+                fireChanged();
+            }
+        });
+        return task;
+    }
+
+    // Task running on the current thread, once it finished it no longer counts
+    private static Task<?> current() {
+        Task<?> task = currentTask.get();
+        return (task == null || task.finished) ? null : task;
+    }
+
+    // Report progress of the task running on the current thread
+    public static void progress(String message) {
+        progress(message, -1);
+    }
+
+    // Report progress with the completed fraction (0 to 1), -1 if it isn't known
+    public static void progress(String message, double fraction) {
+        Task<?> task = current();
+        if (task != null) {
+            task.progress = message;
+            task.fraction = fraction;
+            fireChanged();
+        }
+    }
+
+    // Register an action that stops blocking work (e.g. destroys a process) if the current task is cancelled.
+    // Close the returned hook when the work is over, a task may run thousands of commands.
+    public static CancelHook onCancel(Runnable hook) {
+        Task<?> task = current();
+        if (task == null) {
+            return () -> { };
+        }
+        task.cancelHooks.add(hook);
+        if (task.cancelled) {
+            hook.run();
+        }
+        return () -> task.cancelHooks.remove(hook);
+    }
+
+    // Wrap work to run on another thread (e.g. one per device) as part of the current task,
+    // so it reports progress and registers cancel hooks like the task's own thread
+    public static <T> Callable<T> withCurrentTask(Callable<T> work) {
+        Task<?> task = current();
+        if (task == null) {
+            return work;
+        }
+        return () -> {
+            Task<?> previous = currentTask.get();
+            currentTask.set(task);
+            try {
+                return work.call();
+            } finally {
+                currentTask.set(previous);
+            }
+        };
+    }
+
+    public static boolean isCancelled() {
+        Task<?> task = current();
+        return task != null && task.cancelled;
+    }
+
+    public static List<Task<?>> getRunningTasks() {
+        return new ArrayList<>(runningTasks);
+    }
+
+    public static void cancelAll() {
+        for (Task<?> task : runningTasks) {
+            task.cancel();
+        }
+    }
+
+    // Listeners are called on the EDT whenever a task starts, reports progress or finishes
+    public static void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    private static void fireChanged() {
+        SwingUtilities.invokeLater(() -> listeners.forEach(Runnable::run));
+    }
+
+    public static class Task<T> {
+        private final String label;
+        private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+        private volatile String progress;
+        private volatile double fraction = -1;
+        private volatile boolean cancelled = false;
+        private volatile boolean finished = false;
+        private volatile Future<?> future;
+
+        private Task(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public String getProgress() {
+            return progress;
+        }
+
+        // Completed fraction (0 to 1) of the last progress report, -1 if it isn't known
+        public double getFraction() {
+            return fraction;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            for (Runnable hook : cancelHooks) {
+                hook.run();
+            }
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -1,41 +1,132 @@
 package com.axperty.svsm.utils;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TransferSave {
     // Move Save to Steam
-    public static void moveSaveToSteam(String saveName, String saveId) {
-        String androidPath = "/storage/emulated/0/Android/data/com.chucklefish.stardewvalley/files/Saves/" + saveName + "_" + saveId;
-        String steamPath = System.getenv("APPDATA") + "/StardewValley/Saves/" + saveName + "_" + saveId;
-        executeSaveTransfer(androidPath, steamPath);
+    public static boolean moveSaveToSteam(String device, String saveName, String saveId) throws IOException, InterruptedException {
+        return applyMove(planMoveToSteam(device, saveName, saveId));
     }
 
     // Move Save to Android
-    public static void moveSaveToAndroid(String saveName, String saveId) {
-        String steamPath = System.getenv("APPDATA") + "/StardewValley/Saves/" + saveName + "_" + saveId;
-        String androidPath = "/storage/emulated/0/Android/data/com.chucklefish.stardewvalley/files/Saves/" + saveName + "_" + saveId;
-        executeSaveTransfer(steamPath, androidPath);
-    }
-
-    // --- Save Transfer Methods ---
-    private static void executeSaveTransfer(String sourcePath, String destinationPath) {
-        try {
-            // Determine whether to push or pull based on source path
-            String[] command = (sourcePath.startsWith("/storage"))
-                    ? new String[]{"adb", "pull", sourcePath, destinationPath}
-                    : new String[]{"adb", "push", sourcePath, destinationPath};
-
-            Process process = Runtime.getRuntime().exec(command);
-            int exitCode = process.waitFor();
-
-            if (exitCode == 0) {
-                System.out.println("Save transferred successfully!");
-            } else {
-                System.err.println("Error transferring save. Exit code: " + exitCode);
+    public static boolean moveSaveToAndroid(String device, SaveInfo save) throws IOException, InterruptedException {
+        return applyMove(planMoveToAndroid(device, save));
+    }
+
+    // Compare the Android save with its copy in the game's Saves folder, without transferring anything
+    public static SaveSync.Plan planMoveToSteam(String device, String saveName, String saveId) throws IOException {
+        String androidPath = GetData.ANDROID_SAVES_PATH + "/" + saveName + "_" + saveId;
+        Path savesDirectory = SaveLocations.getGameSavesPath();
+        if (savesDirectory == null) {
+            throw new IOException("The game's Saves folder can't be located");
+        }
+        Path steamPath = savesDirectory.resolve(saveName + "_" + saveId);
+        return SaveSync.planToSteam(device, androidPath, steamPath);
+    }
+
+    // Compare a local save, from any save location, with its Android copy, without transferring anything
+    public static SaveSync.Plan planMoveToAndroid(String device, SaveInfo save) throws IOException {
+        Path steamPath = SaveLocations.resolve(save);
+        if (steamPath == null) {
+            throw new IOException("Save location of " + save.getFolderName() + " isn't configured");
+        }
+        String androidPath = GetData.ANDROID_SAVES_PATH + "/" + save.getFolderName();
+        return SaveSync.planToDevice(device, steamPath, androidPath);
+    }
+
+    // Compare the local save with its copy on each device at the same time
+    public static List<SaveSync.Plan> planMoveToAndroid(List<String> devices, SaveInfo save) throws IOException {
+        Map<String, SaveSync.Plan> plans = new ConcurrentHashMap<>();
+        Map<String, Exception> failures = DeviceRegistry.runOnEach(devices, device ->
+                plans.put(device, planMoveToAndroid(device, save)));
+        if (!failures.isEmpty()) {
+            Map.Entry<String, Exception> failure = failures.entrySet().iterator().next();
+            throw new IOException("Error comparing save on " + failure.getKey() + ": " + failure.getValue().getMessage(), failure.getValue());
+        }
+
+        List<SaveSync.Plan> ordered = new ArrayList<>();
+        for (String device : devices) {
+            ordered.add(plans.get(device));
+        }
+        return ordered;
+    }
+
+    // Apply the plans of several devices at the same time, returns the serials of the devices that failed
+    public static List<String> applyMoves(List<SaveSync.Plan> plans) {
+        Map<String, SaveSync.Plan> byDevice = new LinkedHashMap<>();
+        for (SaveSync.Plan plan : plans) {
+            byDevice.put(plan.getDevice(), plan);
+        }
+        List<String> failed = Collections.synchronizedList(new ArrayList<>());
+        Map<String, Exception> failures = DeviceRegistry.runOnEach(byDevice.keySet(), device -> {
+            if (!applyMove(byDevice.get(device))) {
+                failed.add(device);
             }
-        } catch (IOException | InterruptedException ex) {
-            ex.printStackTrace();
-            System.err.println("Error transferring save: " + ex.getMessage());
+        });
+        failures.forEach((device, error) -> {
+            System.err.println("Error transferring save to " + device + ": " + error.getMessage());
+            failed.add(device);
+        });
+        return failed;
+    }
+
+    // Transfer only the changed files, or the whole folder if it doesn't exist on the other platform yet.
+    // The destination is only replaced once the new copy is complete and verified.
+    public static boolean applyMove(SaveSync.Plan plan) throws IOException, InterruptedException {
+        boolean success = SaveSync.apply(plan);
+        if (success) {
+            System.out.println("Save synced successfully! " + plan.getSummary());
         }
+        return success;
+    }
+
+    // Copy an Android save into a local folder, an existing copy is only replaced once the pull finished
+    public static boolean backupAndroidSave(String device, String folderName, Path destination) throws IOException, InterruptedException {
+        Path staging = CopyEngine.stagingPath(destination);
+        CopyEngine.deleteRecursively(staging);
+        Files.createDirectories(staging.getParent());
+        if (!AdbTransfer.pullFolder(device, GetData.ANDROID_SAVES_PATH + "/" + folderName, staging, -1)) {
+            System.err.println("Error backing up save from Android.");
+            CopyEngine.deleteRecursively(staging);
+            return false;
+        }
+        CopyEngine.publish(staging, destination);
+        return true;
+    }
+
+    // Copy a Steam save into a local folder, an existing copy is only replaced if every file was copied
+    public static boolean backupSteamSave(Path source, Path destination) {
+        CopyEngine.Report report = CopyEngine.copyDirectory(source, destination);
+        if (!report.isSuccess()) {
+            report.getFailures().forEach((path, error) ->
+                    System.err.println("Error backing up " + path + ": " + error.getMessage()));
+            return false;
+        }
+        System.out.println("Backed up save: " + report.getSummary());
+        return true;
+    }
+
+    // Delete a save for good, it disappears with a single rename before its files are deleted
+    public static boolean deleteAndroidSave(String device, String folderName) throws IOException {
+        SaveTrash.Batch batch = SaveTrash.trashAndroidSaves(device, List.of(folderName));
+        SaveTrash.purge(batch);
+        if (batch.isEmpty()) {
+            System.err.println("Error deleting save from Android.");
+        }
+        return !batch.isEmpty();
+    }
+
+    public static boolean deleteSteamSave(Path folder) throws IOException {
+        SaveTrash.Batch batch = SaveTrash.trashSteamSaves(folder.getParent(), List.of(folder.getFileName().toString()));
+        SaveTrash.purge(batch);
+        return !batch.isEmpty();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,283 @@
+package com.axperty.svsm.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Writes a zip archive whose files are deflated in parallel, one task per file on a pool the size of the CPU,
+// and written in the order they were added as soon as each one is ready.
+// ZipOutputStream deflates on the thread that writes, and can't take data that was already compressed,
+// so the local headers, central directory and end record are written here. At most WINDOW_PER_CORE files
+// per core and MAX_PENDING_BYTES of file content wait to be written, the first one added is always accepted.
+// There is no zip64: archives are limited to 65535 entries and 4 GB, which is far more than any save collection.
+public class ZipWriter implements Closeable {
+    private static final int WINDOW_PER_CORE = 4;
+    private static final long MAX_PENDING_BYTES = 256L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    // General purpose flag for UTF-8 names
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    // MS-DOS directory attribute, for the central directory
+    private static final int ATTRIBUTE_DIRECTORY = 0x10;
+
+    private static final int WINDOW = Runtime.getRuntime().availableProcessors() * WINDOW_PER_CORE;
+    private static final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            Thread.ofPlatform().daemon().name("svsm-zip-", 0).factory());
+
+    private final OutputStream output;
+    private final Deque<Future<Entry>> pending = new ArrayDeque<>();
+    private final List<Entry> written = new ArrayList<>();
+    private long pendingBytes;
+    private long offset;
+    private int entries;
+    private boolean finished;
+
+    // Reads the content of a file, called on a pool thread
+    public interface Contents {
+        byte[] read() throws IOException;
+    }
+
+    // A compressed file, or a folder with no data
+    private static class Entry {
+        private final byte[] name;
+        private final boolean folder;
+        private final int dosTime;
+        private final long size;
+        private byte[] data = new byte[0];
+        private long compressedSize;
+        private int method = STORED;
+        private long crc;
+        private long offset;
+
+        private Entry(String name, boolean folder, long mtime, long size) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.folder = folder;
+            this.dosTime = dosTime(mtime);
+            this.size = size;
+        }
+    }
+
+    public ZipWriter(Path file) throws IOException {
+        output = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+    }
+
+    // Add a folder, named with "/" as separator and without a trailing "/". mtime is in milliseconds.
+    public void addFolder(String name, long mtime) throws IOException {
+        Entry entry = new Entry(name + "/", true, mtime, 0);
+        enqueue(CompletableFuture.completedFuture(entry), 0);
+    }
+
+    // Add a file of the given size, whose contents are read and deflated on the pool.
+    // Waits for the oldest files to be written first if too many are pending.
+    public void addFile(String name, long size, long mtime, Contents contents) throws IOException {
+        if (size > MAX_SIZE) {
+            throw new IOException(name + " is too large for a zip archive");
+        }
+        while (!pending.isEmpty() && (pending.size() >= WINDOW || pendingBytes + size > MAX_PENDING_BYTES)) {
+            writeNext();
+        }
+        Entry entry = new Entry(name, false, mtime, size);
+        enqueue(pool.submit(() -> compress(entry, contents.read())), size);
+    }
+
+    // Write every pending file, e.g. before their source is deleted
+    public void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        output.flush();
+    }
+
+    // Write the pending files and the central directory. The archive is complete once this returns.
+    public void finish() throws IOException {
+        flush();
+        long directoryOffset = offset;
+        for (Entry entry : written) {
+            writeCentralHeader(entry);
+        }
+        long directorySize = offset - directoryOffset;
+        if (directoryOffset > MAX_SIZE || directorySize > MAX_SIZE) {
+            throw new IOException("Archive too large for a zip file");
+        }
+
+        // End of central directory record
+        writeInt(0x06054b50);
+        writeShort(0);
+        writeShort(0);
+        writeShort(written.size());
+        writeShort(written.size());
+        writeInt(directorySize);
+        writeInt(directoryOffset);
+        writeShort(0);
+        output.flush();
+        finished = true;
+    }
+
+    // Pending files are dropped if the archive wasn't finished
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            for (Future<Entry> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+        }
+        output.close();
+    }
+
+    private void enqueue(Future<Entry> future, long size) throws IOException {
+        if (++entries > MAX_ENTRIES) {
+            future.cancel(true);
+            throw new IOException("Too many files for a zip archive");
+        }
+        pending.add(future);
+        pendingBytes += size;
+    }
+
+    private void writeNext() throws IOException {
+        Future<Entry> future = pending.removeFirst();
+        Entry entry;
+        try {
+            entry = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the archive");
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Archive cancelled");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+        pendingBytes -= entry.size;
+        writeLocalHeader(entry);
+        output.write(entry.data);
+        offset += entry.data.length;
+        // Only the central directory fields are kept
+        entry.compressedSize = entry.data.length;
+        entry.data = null;
+        written.add(entry);
+    }
+
+    // Deflate a file, or store it if it doesn't get smaller
+    private static Entry compress(Entry entry, byte[] data) throws IOException {
+        if (data.length != entry.size) {
+            throw new IOException(new String(entry.name, StandardCharsets.UTF_8) + " changed while it was archived");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.crc = crc.getValue();
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(data.length / 4, 64));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+                if (compressed.size() >= data.length) {
+                    break;
+                }
+            }
+            if (deflater.finished() && compressed.size() < data.length) {
+                entry.data = compressed.toByteArray();
+                entry.method = DEFLATED;
+            } else {
+                entry.data = data;
+            }
+        } finally {
+            deflater.end();
+        }
+        return entry;
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        if (offset > MAX_SIZE) {
+            throw new IOException("Archive too large for a zip file");
+        }
+        entry.offset = offset;
+        writeInt(0x04034b50);
+        writeShort(20);
+        writeShort(FLAG_UTF8);
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(entry.crc);
+        writeInt(entry.data.length);
+        writeInt(entry.size);
+        writeShort(entry.name.length);
+        writeShort(0);
+        output.write(entry.name);
+        offset += entry.name.length;
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        writeInt(0x02014b50);
+        writeShort(20);
+        writeShort(20);
+        writeShort(FLAG_UTF8);
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        writeShort(entry.name.length);
+        // Extra field, comment, disk number and internal attributes
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(entry.folder ? ATTRIBUTE_DIRECTORY : 0);
+        writeInt(entry.offset);
+        output.write(entry.name);
+        offset += entry.name.length;
+    }
+
+    // Seconds since 1980 in two second steps, in local time like every zip tool
+    private static int dosTime(long mtime) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(mtime), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16
+                | time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    private void writeShort(int value) throws IOException {
+        output.write(value & 0xff);
+        output.write((value >>> 8) & 0xff);
+        offset += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        output.write((int) (value & 0xff));
+        output.write((int) ((value >>> 8) & 0xff));
+        output.write((int) ((value >>> 16) & 0xff));
+        output.write((int) ((value >>> 24) & 0xff));
+        offset += 4;
+    }
+}